@@ -0,0 +1,106 @@
+package io.github.yangxlei.bjnetwork.websocket;
+
+import java.util.Random;
+
+/**
+ * 指数退避 + full jitter: 第 n 次重连在 [0, min(maxDelay, initialDelay * multiplier^(n-1))] 中随机等待,
+ * 避免服务端重启后所有客户端同时重连. 连接保持 stableConnection 以上之后断开, 重新从第一次开始计算.
+ */
+public class BJBackoffReconnectStrategy implements BJReconnectStrategy {
+
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final double multiplier;
+    private final long stableConnectionMillis;
+    private final int maxAttempts;
+    private final Random mRandom = new Random();
+
+    private int attempt;
+    private long connectedAtMillis;
+
+    private BJBackoffReconnectStrategy(Builder builder) {
+        this.initialDelayMillis = builder.initialDelayMillis;
+        this.maxDelayMillis = builder.maxDelayMillis;
+        this.multiplier = builder.multiplier;
+        this.stableConnectionMillis = builder.stableConnectionMillis;
+        this.maxAttempts = builder.maxAttempts;
+    }
+
+    @Override
+    public synchronized void onConnected() {
+        connectedAtMillis = System.currentTimeMillis();
+    }
+
+    @Override
+    public synchronized long nextReconnectDelayMillis() {
+        if (connectedAtMillis != 0 && System.currentTimeMillis() - connectedAtMillis >= stableConnectionMillis) {
+            attempt = 0;
+        }
+        connectedAtMillis = 0;
+
+        if (maxAttempts > 0 && attempt >= maxAttempts) {
+            return -1;
+        }
+        attempt++;
+        double cap = Math.min(maxDelayMillis, initialDelayMillis * Math.pow(multiplier, attempt - 1));
+        return (long) (mRandom.nextDouble() * cap);
+    }
+
+    /**
+     * @return 连续重连的次数
+     */
+    public synchronized int getAttempt() {
+        return attempt;
+    }
+
+    public static class Builder {
+        private long initialDelayMillis = 500;
+        private long maxDelayMillis = 30 * 1000;
+        private double multiplier = 2;
+        private long stableConnectionMillis = 10 * 1000;
+        private int maxAttempts;
+
+        /**
+         * @param initialDelayMillis 第一次重连的最大等待时间, default 500ms
+         * @param maxDelayMillis 最大等待时间, default 30s
+         */
+        public Builder setDelay(long initialDelayMillis, long maxDelayMillis) {
+            if (initialDelayMillis <= 0 || maxDelayMillis < initialDelayMillis) {
+                throw new IllegalArgumentException("delay");
+            }
+            this.initialDelayMillis = initialDelayMillis;
+            this.maxDelayMillis = maxDelayMillis;
+            return this;
+        }
+
+        /**
+         * @param multiplier default 2
+         */
+        public Builder setMultiplier(double multiplier) {
+            if (multiplier < 1) throw new IllegalArgumentException("multiplier < 1");
+            this.multiplier = multiplier;
+            return this;
+        }
+
+        /**
+         * @param stableConnectionMillis 连接保持该时间以上视为稳定, 断开后重置退避, default 10s
+         */
+        public Builder setStableConnection(long stableConnectionMillis) {
+            this.stableConnectionMillis = stableConnectionMillis;
+            return this;
+        }
+
+        /**
+         * @param maxAttempts 连续重连的最大次数, 0 表示不限制, default 0
+         */
+        public Builder setMaxAttempts(int maxAttempts) {
+            if (maxAttempts < 0) throw new IllegalArgumentException("maxAttempts < 0");
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        public BJBackoffReconnectStrategy build() {
+            return new BJBackoffReconnectStrategy(this);
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package io.github.yangxlei.bjnetwork.websocket;
 
+import okio.ByteString;
+import okio.Source;
+
 /**
  * Created by yanglei on 16/6/29.
  */
@@ -12,13 +15,54 @@ public class BJMessageBody {
         this.retryCount = originRetryCount;
     }
 
+    /**
+     * 二进制消息
+     */
+    protected BJMessageBody(ByteString bytes, int retryCount) {
+        this.bytes = bytes;
+        this.originRetryCount = retryCount;
+        this.retryCount = originRetryCount;
+    }
+
+    /**
+     * 流式的二进制消息, 只能发送一次, 不重试
+     */
+    protected BJMessageBody(Source source) {
+        this.source = source;
+        this.originRetryCount = 0;
+        this.retryCount = -1;
+    }
+
     private String content;
+    private ByteString bytes;
+    private Source source;
     protected int retryCount;
 
+    /**
+     * @return 文本消息的内容, 二进制消息返回 null
+     */
     public String getContent() {
         return content;
     }
 
+    /**
+     * @return 二进制消息的内容, 文本消息和流式消息返回 null
+     */
+    public ByteString getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return 流式消息的数据源, 发送后被关闭
+     */
+    public Source getSource() {
+        return source;
+    }
+
+    public boolean isBinary() {
+        return content == null;
+    }
+
     public int getRetryCount() {
         return originRetryCount;
     }
@@ -27,7 +71,13 @@ public class BJMessageBody {
     public String toString() {
         StringBuilder builder = new StringBuilder();
         builder.append("--->");
-        builder.append(content);
+        if (content != null) {
+            builder.append(content);
+        } else if (bytes != null) {
+            builder.append("[binary ").append(bytes.size()).append(" bytes]");
+        } else {
+            builder.append("[binary stream]");
+        }
         builder.append("<---; ");
         builder.append(originRetryCount-retryCount).append(" retry.");
         return builder.toString();
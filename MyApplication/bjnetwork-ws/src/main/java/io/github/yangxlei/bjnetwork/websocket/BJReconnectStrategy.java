@@ -0,0 +1,19 @@
+package io.github.yangxlei.bjnetwork.websocket;
+
+/**
+ * WebSocket 断开后的重连策略, 见 {@link BJWebSocketClient#setReconnectStrategy}.
+ * 每个 BJWebSocketClient 使用单独的实例, 可以保存状态.
+ */
+public interface BJReconnectStrategy {
+
+    /**
+     * 连接成功
+     */
+    void onConnected();
+
+    /**
+     * 连接断开, 准备重连
+     * @return 重连前等待的时间, 单位毫秒. 小于 0 时不再重连
+     */
+    long nextReconnectDelayMillis();
+}
@@ -12,15 +12,21 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
 
+import io.github.yangxlei.bjnetwork.BJLogSink;
 import io.github.yangxlei.bjnetwork.BJNetworkClient;
+import okhttp3.MediaType;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
 import okhttp3.ws.WebSocket;
 import okhttp3.ws.WebSocketCall;
+import okhttp3.internal.Util;
 import okhttp3.ws.WebSocketListener;
 import okio.Buffer;
+import okio.BufferedSink;
+import okio.ByteString;
+import okio.Source;
 
 /**
  * Created by yanglei on 16/6/28.
@@ -35,6 +41,45 @@ public class BJWebSocketClient {
         None, Info, Body
     }
 
+    /**
+     * 一次 flush 中多条消息的分帧方式
+     */
+    public enum MessageFraming {
+        /**
+         * 每条消息一个 WebSocket 帧
+         */
+        None,
+        /**
+         * 多条消息合并为一个文本帧, 每条消息以 "\n" 结尾. 服务端需要按行拆分, 消息本身不能包含 "\n"
+         */
+        NewlineDelimited
+    }
+
+    /**
+     * 发送队列已满时的处理方式
+     */
+    public enum OverflowPolicy {
+        /**
+         * 调用 sendMessage 的线程等待队列有空位. 不要在主线程使用
+         */
+        Block,
+        /**
+         * 丢弃队列中最早的消息
+         */
+        DropOldest,
+        /**
+         * 丢弃新的消息
+         */
+        DropNewest,
+        /**
+         * 新的消息回调 {@link BJWebSocketListener#onSentMessageFailure}
+         */
+        FailFast
+    }
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+    public static final int DEFAULT_MAX_QUEUE_SIZE = 1024;
+
     public static int ERROR_CODE_CLOSE_BY_USER = 3998;
     public static int ERROR_CODE_CLIENT_EXCEPTION = 3999;
 
@@ -53,6 +98,18 @@ public class BJWebSocketClient {
     private String mClientName;
 
     private LogLevel mLogLevel = LogLevel.Info;
+    private BJLogSink mLogSink;
+
+    private volatile MessageFraming mMessageFraming = MessageFraming.None;
+    private volatile int mMaxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private final BJWebSocketSendStats mSendStats = new BJWebSocketSendStats();
+    // 发送队列, 重连时由新的发送线程继续使用
+    private volatile LinkedBlockingQueue<BJMessageBody> mMessageQueue;
+    private volatile OverflowPolicy mOverflowPolicy = OverflowPolicy.FailFast;
+    private final BJWebSocketQueueStats mQueueStats = new BJWebSocketQueueStats();
+    private BJReconnectStrategy mReconnectStrategy = new BJBackoffReconnectStrategy.Builder().build();
+    private boolean mNetworkAvailable = true;
+    private volatile boolean mReconnectPending;
 
     public BJWebSocketClient(String name) {
         this(name, null);
@@ -66,7 +123,10 @@ public class BJWebSocketClient {
         } else {
             mNetworkClient = networkClient;
         }
+        mLogSink = mNetworkClient.getLogSink();
 
+        mMessageQueue = new LinkedBlockingQueue<>(DEFAULT_MAX_QUEUE_SIZE);
+        mQueueStats.setQueue(mMessageQueue, DEFAULT_MAX_QUEUE_SIZE);
         mSendMessageThread = new SendMessageThread();
         mClientName = name;
     }
@@ -84,11 +144,16 @@ public class BJWebSocketClient {
             mHandlerThread = handlerThread;
         }
 
-        private void sendReconnectSignal() {
+        private void sendReconnectSignal(long delayMillis) {
             if (! mHandlerThread.isAlive()) return;
+            removeMessages(0);
             Message message = new Message();
             message.what = 0;
-            sendMessageDelayed(message, 500);
+            sendMessageDelayed(message, delayMillis);
+        }
+
+        private void cancelReconnectSignal() {
+            removeMessages(0);
         }
 
         private void quitReconnect() {
@@ -132,7 +197,7 @@ public class BJWebSocketClient {
     }
 
     public List<BJMessageBody> getRequestQueue() {
-        return new ArrayList<>(mSendMessageThread.mMessageQueue);
+        return new ArrayList<>(mMessageQueue);
     }
 
     public void setLogLevel(LogLevel logLevel) {
@@ -140,6 +205,100 @@ public class BJWebSocketClient {
         mLogLevel = logLevel;
     }
 
+    /**
+     * 日志改为异步批量输出. 默认使用 {@link BJNetworkClient#getLogSink()}, 为 null 时同步输出到 logcat.
+     */
+    public void setLogSink(BJLogSink logSink) {
+        mLogSink = logSink;
+    }
+
+    /**
+     * 设置一次 flush 中多条消息的分帧方式, 默认 {@link MessageFraming#None}. 需要服务端支持.
+     */
+    public void setMessageFraming(MessageFraming messageFraming) {
+        assert (messageFraming != null);
+        mMessageFraming = messageFraming;
+    }
+
+    /**
+     * @param maxBatchSize 一次 flush 最多发送的消息数, default 64
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1) throw new IllegalArgumentException("maxBatchSize < 1");
+        mMaxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * 设置断开后的重连策略, 默认 {@link BJBackoffReconnectStrategy}
+     */
+    public synchronized void setReconnectStrategy(BJReconnectStrategy reconnectStrategy) {
+        assert (reconnectStrategy != null);
+        mReconnectStrategy = reconnectStrategy;
+    }
+
+    /**
+     * 设备网络状态变化时调用. 没有网络时暂停重连, 网络恢复后立即重连.
+     */
+    public synchronized void setNetworkAvailable(boolean networkAvailable) {
+        if (mNetworkAvailable == networkAvailable) return;
+        mNetworkAvailable = networkAvailable;
+        if (isInfoLoggable()) {
+            logInfo(" setNetworkAvailable(" + networkAvailable + ")" + environment());
+        }
+        if (mReconnectSignalHandler == null) return;
+
+        if (!networkAvailable) {
+            mReconnectSignalHandler.cancelReconnectSignal();
+            if (mState == State.Offline) {
+                mReconnectPending = true;
+            }
+        } else if (mReconnectPending) {
+            mReconnectPending = false;
+            mReconnectSignalHandler.sendReconnectSignal(0);
+        }
+    }
+
+    /**
+     * 设置发送队列的容量, default 1024. 只能在第一次 connect() 之前调用,
+     * 已经在队列中的消息超过容量时回调 onSentMessageFailure.
+     */
+    public synchronized void setMaxQueueSize(int maxQueueSize) {
+        if (maxQueueSize < 1) throw new IllegalArgumentException("maxQueueSize < 1");
+        if (mSendMessageThread.getState() != Thread.State.NEW || mState != State.Offline) {
+            throw new IllegalStateException("setMaxQueueSize() must be called before connect()");
+        }
+        LinkedBlockingQueue<BJMessageBody> queue = new LinkedBlockingQueue<>(maxQueueSize);
+        for (BJMessageBody body = mMessageQueue.poll(); body != null; body = mMessageQueue.poll()) {
+            if (!queue.offer(body)) {
+                reject(body);
+            }
+        }
+        mMessageQueue = queue;
+        mQueueStats.setQueue(queue, maxQueueSize);
+    }
+
+    /**
+     * 设置发送队列已满时的处理方式, 默认 {@link OverflowPolicy#FailFast}
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        assert (overflowPolicy != null);
+        mOverflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * @return 发送队列的深度, 丢弃和拒绝的消息数
+     */
+    public BJWebSocketQueueStats getQueueStats() {
+        return mQueueStats;
+    }
+
+    /**
+     * @return 每次 flush 的消息数和字节数
+     */
+    public BJWebSocketSendStats getSendStats() {
+        return mSendStats;
+    }
+
     private void setAndNotifyStateChanged(State state) {
         if (mState == state) return;
 
@@ -150,11 +309,12 @@ public class BJWebSocketClient {
     }
 
     public void connect() {
-        logInfo("connect() while environment is " +
-                "(state="+mState+", address="+address+", " +
-                "SendMsgQueueSize="+mSendMessageThread.mMessageQueue.size()+")");
+        if (isInfoLoggable()) {
+            logInfo("connect()" + environment());
+        }
 
         if (mState != State.Offline) return;
+        mReconnectPending = false;
 
         if (TextUtils.isEmpty(address)) {
             throw new NullPointerException("address is empty!");
@@ -175,8 +335,9 @@ public class BJWebSocketClient {
         mWSListener = new WSListener();
         mWebSocketCall.enqueue(mWSListener);
 
-        if (mSendMessageThread.getState() != Thread.State.NEW) {
-            mSendMessageThread = mSendMessageThread.clone();
+        // 未启动的线程也可能在 disconnect() 中被中断过
+        if (mSendMessageThread.getState() != Thread.State.NEW || mSendMessageThread.isInterrupted()) {
+            mSendMessageThread = new SendMessageThread();
         }
     }
 
@@ -185,9 +346,9 @@ public class BJWebSocketClient {
     }
 
     private synchronized void disconnect(int code, String reason) {
-        logInfo(" disconnect("+code+", "+reason+") " +
-                "while environment is (state="+mState+", address="+address+", " +
-                "SendMsgQueueSize="+mSendMessageThread.mMessageQueue.size()+")");
+        if (isInfoLoggable()) {
+            logInfo(" disconnect(" + code + ", " + reason + ")" + environment());
+        }
 
         if (mSendMessageThread != null) {
             mSendMessageThread.interrupt();
@@ -198,6 +359,7 @@ public class BJWebSocketClient {
                 mReconnectSignalHandler.quitReconnect();
             }
             mReconnectSignalHandler = null;
+            mReconnectPending = false;
         }
 
         if (mState == State.Offline) return;
@@ -218,9 +380,7 @@ public class BJWebSocketClient {
                         mListener.onReconnect(this);
                     }
 //                    connect();
-                    if (mReconnectSignalHandler != null) {
-                        mReconnectSignalHandler.sendReconnectSignal();
-                    }
+                    scheduleReconnect();
                 }
             }
         } catch (Exception e) {
@@ -235,9 +395,7 @@ public class BJWebSocketClient {
                     mListener.onReconnect(this);
                 }
 //                connect();
-                if (mReconnectSignalHandler != null) {
-                    mReconnectSignalHandler.sendReconnectSignal();
-                }
+                scheduleReconnect();
             }
         }
     }
@@ -249,18 +407,70 @@ public class BJWebSocketClient {
     public void sendMessage(String message, int retryCount) {
         assert (message != null);
         assert (retryCount >= 0);
-        mSendMessageThread.add(message, retryCount);
+        if (mMessageFraming == MessageFraming.NewlineDelimited && message.indexOf('\n') != -1) {
+            throw new IllegalArgumentException("message contains '\\n' while framing is NewlineDelimited");
+        }
+        mSendMessageThread.add(new BJMessageBody(message, retryCount));
+    }
+
+    /**
+     * 发送二进制消息 ({@link WebSocket#BINARY}), 不做 base64 编码
+     */
+    public void sendMessage(byte[] message) {
+        sendMessage(message, MESSAGE_SEND_RETRY_COUNT);
+    }
+
+    public void sendMessage(byte[] message, int retryCount) {
+        assert (message != null);
+        sendMessage(ByteString.of(message), retryCount);
+    }
+
+    public void sendMessage(ByteString message) {
+        sendMessage(message, MESSAGE_SEND_RETRY_COUNT);
+    }
+
+    public void sendMessage(ByteString message, int retryCount) {
+        assert (message != null);
+        assert (retryCount >= 0);
+        mSendMessageThread.add(new BJMessageBody(message, retryCount));
+    }
+
+    /**
+     * 流式发送二进制消息, 在发送线程中边读边写, 不把整个消息读入内存. 发送后关闭 source.
+     * source 只能读取一次, 发送失败时不重试, 直接回调 {@link BJWebSocketListener#onSentMessageFailure}
+     */
+    public void sendMessage(Source source) {
+        assert (source != null);
+        mSendMessageThread.add(new BJMessageBody(source));
+    }
+
+    private synchronized void scheduleReconnect() {
+        if (mReconnectSignalHandler == null) return;
+        if (!mNetworkAvailable) {
+            // 网络恢复后再重连
+            mReconnectPending = true;
+            return;
+        }
+        long delay = mReconnectStrategy.nextReconnectDelayMillis();
+        if (delay < 0) {
+            if (isInfoLoggable()) {
+                logInfo(" stop reconnecting" + environment());
+            }
+            return;
+        }
+        mReconnectSignalHandler.sendReconnectSignal(delay);
     }
 
     private class WSListener implements WebSocketListener {
 
         @Override
         public void onOpen(WebSocket webSocket, Response response) {
-            logInfo(" onOpen() while environment is " +
-                    "(state="+mState+", address="+address+", " +
-                    "SendMsgQueueSize="+mSendMessageThread.mMessageQueue.size()+")");
+            if (isInfoLoggable()) {
+                logInfo(" onOpen()" + environment());
+            }
 
             setAndNotifyStateChanged(State.Connected);
+            mReconnectStrategy.onConnected();
 
             mWebSocket = webSocket;
             mSendMessageThread.start();
@@ -268,9 +478,7 @@ public class BJWebSocketClient {
 
         @Override
         public void onFailure(IOException e, Response response) {
-            logException(e, " onFailure() while environment is " +
-                    "(state="+mState+", address="+address+", " +
-                    "SendMsgQueueSize="+mSendMessageThread.mMessageQueue.size()+")");
+            logException(e, " onFailure()" + environment());
 
             e.printStackTrace();
             disconnect(ERROR_CODE_CLIENT_EXCEPTION, e.getMessage());
@@ -278,15 +486,17 @@ public class BJWebSocketClient {
 
         @Override
         public void onMessage(ResponseBody message) throws IOException {
-            logInfo(" onMessage("+message+") while environment is " +
-                    "(state="+mState+", address="+address+", " +
-                    "SendMsgQueueSize="+mSendMessageThread.mMessageQueue.size()+")");
+            if (isInfoLoggable()) {
+                logInfo(" onMessage(" + message + ")" + environment());
+            }
 
             try {
                 if (mListener != null) {
                     if (message.contentType() == WebSocket.TEXT) {
                         String result = message.string();
-                        logData("onMessage() recv TEXT: " + result);
+                        if (mLogLevel == LogLevel.Body) {
+                            logData("onMessage() recv TEXT: " + result);
+                        }
                         mListener.onMessage(BJWebSocketClient.this, result);
                     } else {
                         mListener.onMessage(BJWebSocketClient.this, message.byteStream());
@@ -309,9 +519,9 @@ public class BJWebSocketClient {
 
         @Override
         public void onClose(int code, String reason) {
-            logInfo(" onClose("+code+", "+reason+") while environment is " +
-                    "(state="+mState+", address="+address+", " +
-                    "SendMsgQueueSize="+mSendMessageThread.mMessageQueue.size()+")");
+            if (isInfoLoggable()) {
+                logInfo(" onClose(" + code + ", " + reason + ")" + environment());
+            }
 
             if (mWebSocketCall != null) {
                 mWebSocketCall.cancel();
@@ -329,18 +539,16 @@ public class BJWebSocketClient {
                     disconnect(code, reason);
                 }
 //                connect();
-                if (mReconnectSignalHandler != null) {
-                    mReconnectSignalHandler.sendReconnectSignal();
-                }
+                scheduleReconnect();
             } else {
                 if (mListener != null) {
 
-                    if(mSendMessageThread.mMessageQueue.size() > 0) {
-                        BJMessageBody body = mSendMessageThread.mMessageQueue.poll();
+                    if(mMessageQueue.size() > 0) {
+                        BJMessageBody body = mMessageQueue.poll();
                         while (body != null) {
                             mListener.onSentMessageFailure(BJWebSocketClient.this, body);
 
-                            body = mSendMessageThread.mMessageQueue.poll();
+                            body = mMessageQueue.poll();
                         }
                     }
                     mListener.onClose(BJWebSocketClient.this);
@@ -349,15 +557,36 @@ public class BJWebSocketClient {
         }
     }
 
+    /**
+     * 调用方先检查级别再拼接日志, 关闭日志时不做字符串拼接
+     */
+    private boolean isInfoLoggable() {
+        return mLogLevel == LogLevel.Info || mLogLevel == LogLevel.Body;
+    }
+
+    private String environment() {
+        return " while environment is (state=" + mState + ", address=" + address + ", " +
+                "SendMsgQueueSize=" + mMessageQueue.size() + ")";
+    }
+
     private void logInfo(String log) {
-        if (mLogLevel == LogLevel.Info || mLogLevel == LogLevel.Body) {
-            Log.i(getClientName(), log);
+        if (isInfoLoggable()) {
+            println(Log.INFO, log);
         }
     }
 
     private void logData(String data) {
         if (mLogLevel == LogLevel.Body) {
-            Log.i(getClientName(), data);
+            println(Log.INFO, data);
+        }
+    }
+
+    private void println(int priority, String log) {
+        BJLogSink logSink = mLogSink;
+        if (logSink != null) {
+            logSink.log(priority, getClientName(), log);
+        } else {
+            Log.println(priority, getClientName(), log);
         }
     }
 
@@ -370,70 +599,219 @@ public class BJWebSocketClient {
         if (message == null) {
             message = e.toString();
         }
-       Log.e(getClientName(), ext + " " +  message);
+        println(Log.ERROR, ext + " " + message);
+    }
+
+    /**
+     * 加入发送队列, 队列已满时按 {@link #setOverflowPolicy} 处理. 多个线程可以同时调用
+     */
+    private void enqueue(BJMessageBody messageBody) {
+        LinkedBlockingQueue<BJMessageBody> queue = mMessageQueue;
+        if (queue.offer(messageBody)) {
+            mQueueStats.onEnqueued();
+            return;
+        }
+
+        switch (mOverflowPolicy) {
+            case Block:
+                mQueueStats.onBlocked();
+                try {
+                    queue.put(messageBody);
+                    mQueueStats.onEnqueued();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    reject(messageBody);
+                }
+                break;
+            case DropOldest:
+                while (!queue.offer(messageBody)) {
+                    BJMessageBody oldest = queue.poll();
+                    if (oldest != null) {
+                        drop(oldest);
+                    }
+                }
+                mQueueStats.onEnqueued();
+                break;
+            case DropNewest:
+                drop(messageBody);
+                break;
+            default:
+                reject(messageBody);
+                break;
+        }
+    }
+
+    private void drop(BJMessageBody messageBody) {
+        mQueueStats.onDropped();
+        if (messageBody.getSource() != null) {
+            Util.closeQuietly(messageBody.getSource());
+        }
+        if (mLogLevel == LogLevel.Body) {
+            logData("drop BJMessageBody(" + messageBody + ")");
+        }
     }
 
-    private class SendMessageThread extends Thread implements Cloneable {
+    private void reject(BJMessageBody messageBody) {
+        mQueueStats.onRejected();
+        if (messageBody.getSource() != null) {
+            Util.closeQuietly(messageBody.getSource());
+        }
+        if (mListener != null) {
+            mListener.onSentMessageFailure(this, messageBody);
+        }
+    }
 
-        private LinkedBlockingQueue<BJMessageBody> mMessageQueue =  new LinkedBlockingQueue<>();
+    private class SendMessageThread extends Thread {
 
         private SendMessageThread() {
             super("SendMessageThread");
             setDaemon(true);
         }
 
-        public void add(String message, int retryCount) {
-            BJMessageBody messageBody = new BJMessageBody(message, retryCount);
-            messageBody.retryCount = retryCount;
-            mMessageQueue.add(messageBody);
-
+        public void add(BJMessageBody messageBody) {
+            enqueue(messageBody);
         }
 
+        /**
+         * 取出队列中所有待发送的消息一起写出. 复用同一个 Buffer 和 RequestBody, 不为每条消息分配
+         */
         @Override
         public void run() {
-
-            BJMessageBody message = null;
+            List<BJMessageBody> batch = new ArrayList<>();
+            FrameBody frame = new FrameBody();
 
             while (! interrupted()) {
-
-                if (message != null) {
-                    try {
-                        RequestBody body = RequestBody.create(WebSocket.TEXT, message.getContent());
-                        mWebSocket.sendMessage(body);
-                        if (mLogLevel == LogLevel.Info) {
-                            logInfo("sendMessage()  BJMessageBody(" + message.hashCode() + ", " + (message.originRetryCount - message.retryCount) +" retry)");
-                        } else {
-                            logData("sendMessage()  BJMessageBody(" + message + ")");
+                LinkedBlockingQueue<BJMessageBody> queue = mMessageQueue;
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException ignore) {
+                    break;
+                }
+                queue.drainTo(batch, mMaxBatchSize - 1);
+
+                long bytes = 0;
+                int messages = 0;
+                boolean newline = mMessageFraming == MessageFraming.NewlineDelimited;
+                for (int from = 0; from < batch.size(); ) {
+                    // 连续的文本消息可以合并, 二进制消息单独一帧
+                    int to = from + 1;
+                    if (newline && !batch.get(from).isBinary()) {
+                        while (to < batch.size() && !batch.get(to).isBinary()) {
+                            to++;
                         }
+                    }
+                    long sent = send(frame, batch, from, to, newline && !batch.get(from).isBinary());
+                    if (sent >= 0) {
+                        bytes += sent;
+                        messages += to - from;
+                    }
+                    from = to;
+                }
+                if (messages > 0) {
+                    mSendStats.onFlush(messages, bytes);
+                    if (mLogLevel == LogLevel.Info) {
+                        logInfo("sendMessage()  " + messages + " BJMessageBody, " + bytes + " bytes");
+                    }
+                }
+                batch.clear();
+            }
+        }
+
+        /**
+         * 把 batch 中 [from, to) 的消息写成一个帧
+         * @return 写出的字节数, 失败时返回 -1
+         */
+        private long send(FrameBody frame, List<BJMessageBody> batch, int from, int to, boolean newline) {
+            Buffer buffer = frame.buffer;
+            buffer.clear();
+            BJMessageBody first = batch.get(from);
+            frame.contentType = first.isBinary() ? WebSocket.BINARY : WebSocket.TEXT;
+            frame.source = first.getSource();
+            for (int i = from; i < to; i++) {
+                BJMessageBody message = batch.get(i);
+                if (message.getContent() != null) {
+                    buffer.writeUtf8(message.getContent());
+                    if (newline) {
+                        buffer.writeByte('\n');
+                    }
+                } else if (message.getBytes() != null) {
+                    buffer.write(message.getBytes());
+                }
+            }
 
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                        if (message.retryCount >= 0) {
-                            // 发送失败继续重试
-                            message.retryCount -- ;
-                            mMessageQueue.add(message);
+            long bytes;
+            try {
+                mWebSocket.sendMessage(frame);
+                bytes = frame.written;
+            } catch (IOException e) {
+                e.printStackTrace();
+                buffer.clear();
+                if (frame.source != null) {
+                    // 没有开始写出的流式消息
+                    Util.closeQuietly(frame.source);
+                    frame.source = null;
+                }
+                for (int i = from; i < to; i++) {
+                    BJMessageBody message = batch.get(i);
+                    if (message.retryCount >= 0) {
+                        // 发送失败继续重试, 队列已满时不再等待
+                        message.retryCount -- ;
+                        if (mMessageQueue.offer(message)) {
+                            mQueueStats.onEnqueued();
                         } else {
-                            if (mListener != null) {
-                                mListener.onSentMessageFailure(BJWebSocketClient.this, message);
-                            }
+                            reject(message);
+                        }
+                    } else {
+                        if (mListener != null) {
+                            mListener.onSentMessageFailure(BJWebSocketClient.this, message);
                         }
-
                     }
                 }
+                return -1;
+            }
 
-                try {
-                    message = mMessageQueue.take();
-                } catch (InterruptedException ignore) {
-                    break;
+            if (mLogLevel == LogLevel.Body) {
+                for (int i = from; i < to; i++) {
+                    logData("sendMessage()  BJMessageBody(" + batch.get(i) + ")");
                 }
             }
+            return bytes;
+        }
+    }
+
+    /**
+     * 可复用的消息帧, 写出时移走 buffer 中的数据. 流式消息从 source 读取, 长度未知时分多个帧发送
+     */
+    private static class FrameBody extends RequestBody {
+        private final Buffer buffer = new Buffer();
+        private MediaType contentType;
+        private Source source;
+        private long written;
+
+        @Override
+        public MediaType contentType() {
+            return contentType;
+        }
+
+        @Override
+        public long contentLength() {
+            return source != null ? -1 : buffer.size();
         }
 
         @Override
-        protected SendMessageThread clone() {
-            SendMessageThread thread = new SendMessageThread();
-            thread.mMessageQueue = new LinkedBlockingQueue<>(mMessageQueue);
-            return thread;
+        public void writeTo(BufferedSink sink) throws IOException {
+            if (source != null) {
+                Source s = source;
+                source = null;
+                try {
+                    written = sink.writeAll(s);
+                } finally {
+                    Util.closeQuietly(s);
+                }
+            } else {
+                written = buffer.size();
+                sink.write(buffer, buffer.size());
+            }
         }
     }
 }
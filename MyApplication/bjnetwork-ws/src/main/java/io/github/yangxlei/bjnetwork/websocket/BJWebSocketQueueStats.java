@@ -0,0 +1,96 @@
+package io.github.yangxlei.bjnetwork.websocket;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 发送队列统计, 见 {@link BJWebSocketClient#getQueueStats()}
+ */
+public class BJWebSocketQueueStats {
+
+    private volatile BlockingQueue<?> queue;
+    private volatile int capacity;
+    private final AtomicInteger peakDepth = new AtomicInteger();
+    private final AtomicLong enqueuedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong blockedCount = new AtomicLong();
+
+    void setQueue(BlockingQueue<?> queue, int capacity) {
+        this.queue = queue;
+        this.capacity = capacity;
+    }
+
+    void onEnqueued() {
+        enqueuedCount.incrementAndGet();
+        int depth = queue.size();
+        int peak;
+        while (depth > (peak = peakDepth.get())) {
+            if (peakDepth.compareAndSet(peak, depth)) break;
+        }
+    }
+
+    void onDropped() {
+        droppedCount.incrementAndGet();
+    }
+
+    void onRejected() {
+        rejectedCount.incrementAndGet();
+    }
+
+    void onBlocked() {
+        blockedCount.incrementAndGet();
+    }
+
+    /**
+     * @return 当前等待发送的消息数
+     */
+    public int getDepth() {
+        return queue.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return 队列中曾经同时存在的最多消息数
+     */
+    public int getPeakDepth() {
+        return peakDepth.get();
+    }
+
+    public long getEnqueuedCount() {
+        return enqueuedCount.get();
+    }
+
+    /**
+     * @return {@link BJWebSocketClient.OverflowPolicy#DropOldest} 和
+     * {@link BJWebSocketClient.OverflowPolicy#DropNewest} 丢弃的消息数
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return 队列已满或重试时无法入队, 回调 onSentMessageFailure 的消息数
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * @return {@link BJWebSocketClient.OverflowPolicy#Block} 时调用方等待的次数
+     */
+    public long getBlockedCount() {
+        return blockedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "BJWebSocketQueueStats{depth=" + getDepth() + "/" + capacity + ", peak=" + peakDepth.get()
+                + ", enqueued=" + enqueuedCount.get() + ", dropped=" + droppedCount.get()
+                + ", rejected=" + rejectedCount.get() + ", blocked=" + blockedCount.get() + "}";
+    }
+}
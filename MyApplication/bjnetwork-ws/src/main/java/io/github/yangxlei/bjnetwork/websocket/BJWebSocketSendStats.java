@@ -0,0 +1,67 @@
+package io.github.yangxlei.bjnetwork.websocket;
+
+/**
+ * 发送统计. 发送线程每次从队列中取出所有待发送的消息一起写出, 记为一次 flush.
+ * 见 {@link BJWebSocketClient#getSendStats()}
+ */
+public class BJWebSocketSendStats {
+
+    private long flushCount;
+    private long messageCount;
+    private long byteCount;
+    private int lastFlushMessages;
+    private long lastFlushBytes;
+    private int maxFlushMessages;
+
+    synchronized void onFlush(int messages, long bytes) {
+        flushCount++;
+        messageCount += messages;
+        byteCount += bytes;
+        lastFlushMessages = messages;
+        lastFlushBytes = bytes;
+        maxFlushMessages = Math.max(maxFlushMessages, messages);
+    }
+
+    public synchronized long getFlushCount() {
+        return flushCount;
+    }
+
+    /**
+     * @return 发送成功的消息数
+     */
+    public synchronized long getMessageCount() {
+        return messageCount;
+    }
+
+    /**
+     * @return 发送成功的字节数, 包括分隔消息的换行
+     */
+    public synchronized long getByteCount() {
+        return byteCount;
+    }
+
+    public synchronized int getLastFlushMessages() {
+        return lastFlushMessages;
+    }
+
+    public synchronized long getLastFlushBytes() {
+        return lastFlushBytes;
+    }
+
+    public synchronized int getMaxFlushMessages() {
+        return maxFlushMessages;
+    }
+
+    /**
+     * @return 平均每次 flush 的消息数
+     */
+    public synchronized double getMessagesPerFlush() {
+        return flushCount == 0 ? 0 : (double) messageCount / flushCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BJWebSocketSendStats{flushes=" + flushCount + ", messages=" + messageCount + ", bytes=" + byteCount
+                + ", lastFlush=" + lastFlushMessages + "/" + lastFlushBytes + "B, maxFlush=" + maxFlushMessages + "}";
+    }
+}
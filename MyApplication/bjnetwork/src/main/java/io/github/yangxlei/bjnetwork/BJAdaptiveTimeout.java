@@ -0,0 +1,55 @@
+package io.github.yangxlei.bjnetwork;
+
+/**
+ * 按 host 自适应的读超时: host 的 "发出请求到收到响应头" 耗时 (见 {@link BJLatencyRecorder#getHostFirstByteHistogram})
+ * 的 percentile 分位乘以 multiplier, 限制在 [minTimeout, client 的读超时] 之间, 向上取整到 500ms.
+ * 样本不足时使用 client 的读超时. 读超时的请求也计入样本, 超时之后分位会随之增大.
+ * 通过 {@link BJNetworkClient.Builder#setAdaptiveTimeout} 启用, 单次请求设置了超时或者是流式请求
+ * ({@link BJNetCall#setStreaming}) 时不生效.
+ */
+public class BJAdaptiveTimeout {
+
+    private static final long ROUND_MILLIS = 500;
+
+    private final double percentile;
+    private final double multiplier;
+    private final long minTimeoutMillis;
+    private final int minSamples;
+
+    /**
+     * 默认 p99 * 3, 最少 1s, 至少 50 个样本
+     */
+    public BJAdaptiveTimeout() {
+        this(99, 3, 1000, 50);
+    }
+
+    /**
+     * @param percentile 0 ~ 100
+     * @param multiplier 分位延迟的倍数
+     * @param minTimeoutMillis 最小超时
+     * @param minSamples 样本数少于该值时不调整
+     */
+    public BJAdaptiveTimeout(double percentile, double multiplier, long minTimeoutMillis, int minSamples) {
+        if (percentile <= 0 || percentile > 100) throw new IllegalArgumentException("percentile");
+        if (multiplier < 1) throw new IllegalArgumentException("multiplier < 1");
+        this.percentile = percentile;
+        this.multiplier = multiplier;
+        this.minTimeoutMillis = minTimeoutMillis;
+        this.minSamples = minSamples;
+    }
+
+    /**
+     * @param maxTimeoutMillis client 的读超时
+     * @return host 的读超时
+     */
+    public long readTimeoutMillis(BJLatencyRecorder recorder, String host, long maxTimeoutMillis) {
+        BJLatencyHistogram histogram = recorder == null ? null : recorder.getHostFirstByteHistogram(host);
+        if (histogram == null || histogram.getCount() < minSamples) {
+            return maxTimeoutMillis;
+        }
+        long timeout = (long) (histogram.getPercentile(percentile) * multiplier);
+        // 取整, 减少派生的 OkHttpClient 数量
+        timeout = (timeout + ROUND_MILLIS - 1) / ROUND_MILLIS * ROUND_MILLIS;
+        return Math.min(maxTimeoutMillis, Math.max(minTimeoutMillis, timeout));
+    }
+}
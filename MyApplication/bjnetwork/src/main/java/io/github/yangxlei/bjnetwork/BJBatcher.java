@@ -0,0 +1,528 @@
+package io.github.yangxlei.bjnetwork;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Headers;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okhttp3.internal.http.StatusLine;
+import okio.Buffer;
+import okio.ByteString;
+
+/**
+ * 把一个时间窗口内的请求合并为一个 multipart/mixed 请求, 发送到批量接口, 再把响应拆分给每个请求的回调.
+ * 每个 part 的 Content-Type 为 application/http, Content-ID 为 &lt;item-N&gt;, 内容是完整的 HTTP 请求;
+ * 响应的每个 part 是完整的 HTTP 响应, Content-ID 为 &lt;response-item-N&gt;, 没有 Content-ID 时按顺序对应.
+ * 窗口内只有一个请求时直接发送, 不走批量接口. 批量请求不使用 HTTP 缓存.
+ * 和普通请求一样可以通过 {@link BJNetRequestManager#cancelCalls(Object)} 按 tag 取消.
+ * 通过 {@link BJNetRequestManager#newBatcher(String)} 创建.
+ */
+public class BJBatcher {
+
+    public static final long DEFAULT_WINDOW_MILLIS = 50;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 20;
+
+    private static final MediaType APPLICATION_HTTP = MediaType.parse("application/http");
+    private static final Pattern BOUNDARY = Pattern.compile("boundary=\"?([^\";]+)\"?");
+    private static final Pattern CONTENT_ID = Pattern.compile("(\\d+)>?$");
+
+    private final BJNetRequestManager mRequestManager;
+    private final String mBatchUrl;
+    private long windowMillis = DEFAULT_WINDOW_MILLIS;
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+    private List<Item> mPending = new ArrayList<>();
+
+    BJBatcher(BJNetRequestManager requestManager, String batchUrl) {
+        this.mRequestManager = requestManager;
+        this.mBatchUrl = batchUrl;
+    }
+
+    /**
+     * @param windowMillis 收集请求的时间窗口, default 50ms
+     */
+    public void setWindow(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * @param maxBatchSize 达到该数量时立即发送, default 20
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1) throw new IllegalArgumentException("maxBatchSize < 1");
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * 加入一个 GET 请求
+     * @param tag 请求所属的 tag, 见 {@link BJNetCall#executeAsync}
+     * @return 用于取消请求, 请求已经加入合并器, 不能再次执行
+     */
+    public BJNetCall get(String url, Map<String, String> headers, Object tag, BJNetCallback callback) {
+        return add(BJNetRequestManager.HttpMethod.GET, url, null, headers, tag, callback);
+    }
+
+    /**
+     * 加入一个 POST 请求
+     * @param tag 请求所属的 tag, 见 {@link BJNetCall#executeAsync}
+     * @return 用于取消请求, 请求已经加入合并器, 不能再次执行
+     */
+    public BJNetCall post(String url, BJRequestBody requestBody, Map<String, String> headers, Object tag,
+                          BJNetCallback callback) {
+        return add(BJNetRequestManager.HttpMethod.POST, url, requestBody == null ? null : requestBody.getRequestBody(),
+                headers, tag, callback);
+    }
+
+    private BJNetCall add(BJNetRequestManager.HttpMethod method, String url, RequestBody body,
+                          Map<String, String> headers, Object tag, BJNetCallback callback) {
+        if (callback == null) {
+            throw new NullPointerException("callback is null.");
+        }
+        Request request = mRequestManager.buildRequest(method, body, url, 0, headers);
+        Item item = new Item(request, tag, callback);
+        // 和普通请求一样可以通过 BJNetRequestManager.cancelCalls(tag) 取消
+        mRequestManager.getResourceManager().addNetCall(tag, item);
+
+        List<Item> ready = null;
+        boolean schedule;
+        synchronized (this) {
+            mPending.add(item);
+            schedule = mPending.size() == 1;
+            if (mPending.size() >= maxBatchSize) {
+                ready = mPending;
+                mPending = new ArrayList<>();
+            }
+        }
+
+        if (ready != null) {
+            send(ready);
+        } else if (schedule) {
+            mRequestManager.getNetworkClient().getScheduler().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, windowMillis, TimeUnit.MILLISECONDS);
+        }
+        return item;
+    }
+
+    /**
+     * 立即发送窗口内的请求
+     */
+    public void flush() {
+        List<Item> ready;
+        synchronized (this) {
+            if (mPending.isEmpty()) return;
+            ready = mPending;
+            mPending = new ArrayList<>();
+        }
+        send(ready);
+    }
+
+    private void send(List<Item> ready) {
+        // 离开窗口之后被取消的请求已经回调过 onFailure
+        final List<Item> items = new ArrayList<>(ready.size());
+        synchronized (this) {
+            for (Item item : ready) {
+                if (!item.canceled) items.add(item);
+            }
+        }
+        if (items.isEmpty()) return;
+
+        if (items.size() == 1) {
+            // 单独发送, 之后的取消交给 RealNetCall. 在锁外执行, 不在持有锁时进入 BJDispatcher 和回调
+            Item item = items.get(0);
+            BJNetCall single = mRequestManager.newCall(item.request);
+            synchronized (this) {
+                if (item.canceled) return;
+                item.single = single;
+            }
+            single.executeAsync(item.tag, item.callback);
+            // 执行之前被取消时 single.cancel() 可能没有取消到真正执行的 Call
+            if (item.isCanceled()) {
+                single.cancel();
+            }
+            return;
+        }
+
+        Request batchRequest;
+        try {
+            batchRequest = mRequestManager.buildRequest(BJNetRequestManager.HttpMethod.POST, encode(items),
+                    mBatchUrl, 0, null);
+        } catch (IOException e) {
+            for (Item item : items) {
+                if (item.finish()) {
+                    item.callback.onFailure(HttpException.wrap(e, null));
+                }
+            }
+            return;
+        }
+
+        BJNetworkClient client = mRequestManager.getNetworkClient();
+        Batch batch = new Batch(client.newCall(batchRequest), items.size());
+        synchronized (this) {
+            for (Item item : items) {
+                item.batch = batch;
+                if (item.canceled) batch.canceledCount++;
+            }
+            if (batch.canceledCount == items.size()) return;
+        }
+
+        client.getDispatcher().enqueue(batch.call, null, new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                for (Item item : items) {
+                    if (item.finish()) {
+                        item.callback.onFailure(call, e);
+                    }
+                }
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                try {
+                    if (!response.isSuccessful()) {
+                        for (Item item : items) {
+                            if (item.finish()) {
+                                item.callback.onFailure(new HttpException(response.code(), response.message()));
+                            }
+                        }
+                        return;
+                    }
+                    dispatch(call, response, items);
+                } finally {
+                    response.close();
+                }
+            }
+        });
+    }
+
+    private static MultipartBody encode(List<Item> items) throws IOException {
+        MultipartBody.Builder builder = new MultipartBody.Builder().setType(MultipartBody.MIXED);
+        for (int i = 0; i < items.size(); i++) {
+            Request request = items.get(i).request;
+            HttpUrl url = request.url();
+
+            Buffer buffer = new Buffer();
+            buffer.writeUtf8(request.method()).writeUtf8(" ")
+                    .writeUtf8(url.encodedPath());
+            if (url.encodedQuery() != null) {
+                buffer.writeUtf8("?").writeUtf8(url.encodedQuery());
+            }
+            buffer.writeUtf8(" HTTP/1.1\r\n");
+            buffer.writeUtf8("Host: ").writeUtf8(url.host()).writeUtf8("\r\n");
+            Headers headers = request.headers();
+            for (int h = 0; h < headers.size(); h++) {
+                buffer.writeUtf8(headers.name(h)).writeUtf8(": ").writeUtf8(headers.value(h)).writeUtf8("\r\n");
+            }
+            RequestBody body = request.body();
+            if (body != null) {
+                Buffer content = new Buffer();
+                body.writeTo(content);
+                if (body.contentType() != null) {
+                    buffer.writeUtf8("Content-Type: ").writeUtf8(body.contentType().toString()).writeUtf8("\r\n");
+                }
+                buffer.writeUtf8("Content-Length: ").writeUtf8(String.valueOf(content.size())).writeUtf8("\r\n");
+                buffer.writeUtf8("\r\n");
+                buffer.writeAll(content);
+            } else {
+                buffer.writeUtf8("\r\n");
+            }
+
+            builder.addPart(Headers.of("Content-ID", "<item-" + (i + 1) + ">"),
+                    RequestBody.create(APPLICATION_HTTP, buffer.readByteString()));
+        }
+        return builder.build();
+    }
+
+    private static void dispatch(Call call, Response response, List<Item> items) throws IOException {
+        List<Part> parts;
+        try {
+            parts = parse(response);
+        } catch (IOException e) {
+            for (Item item : items) {
+                if (item.finish()) {
+                    item.callback.onFailure(call, e);
+                }
+            }
+            return;
+        }
+
+        Response[] responses = new Response[items.size()];
+        for (int i = 0; i < parts.size(); i++) {
+            Part part = parts.get(i);
+            int index = part.index > 0 ? part.index - 1 : i;
+            if (index < responses.length && responses[index] == null) {
+                Item item = items.get(index);
+                responses[index] = new Response.Builder()
+                        .request(item.request)
+                        .protocol(Protocol.HTTP_1_1)
+                        .code(part.code)
+                        .message(part.message)
+                        .headers(part.headers)
+                        .body(ResponseBody.create(MediaType.parse(contentType(part.headers)), part.body))
+                        .sentRequestAtMillis(response.sentRequestAtMillis())
+                        .receivedResponseAtMillis(response.receivedResponseAtMillis())
+                        .build();
+            }
+        }
+
+        for (int i = 0; i < items.size(); i++) {
+            Item item = items.get(i);
+            if (!item.finish()) continue;
+            if (responses[i] == null) {
+                item.callback.onFailure(call, new ProtocolException("missing batch response for item " + (i + 1)));
+            } else {
+                item.callback.onResponse(call, responses[i]);
+            }
+        }
+    }
+
+    private static String contentType(Headers headers) {
+        String contentType = headers.get("Content-Type");
+        return contentType == null ? "application/octet-stream" : contentType;
+    }
+
+    /**
+     * 解析 multipart/mixed 响应
+     */
+    static List<Part> parse(Response response) throws IOException {
+        String contentType = response.header("Content-Type");
+        Matcher matcher = contentType == null ? null : BOUNDARY.matcher(contentType);
+        if (matcher == null || !matcher.find()) {
+            throw new ProtocolException("not a multipart response: " + contentType);
+        }
+        ByteString delimiter = ByteString.encodeUtf8("--" + matcher.group(1));
+        ByteString crlfDelimiter = ByteString.encodeUtf8("\r\n--" + matcher.group(1));
+
+        Buffer buffer = new Buffer();
+        buffer.writeAll(response.body().source());
+
+        List<Part> parts = new ArrayList<>();
+        long start = buffer.indexOf(delimiter);
+        if (start == -1) throw new ProtocolException("no multipart boundary");
+        buffer.skip(start + delimiter.size());
+        while (true) {
+            // "--" 表示结束
+            if (buffer.size() >= 2 && buffer.getByte(0) == '-' && buffer.getByte(1) == '-') break;
+            skipLine(buffer);
+
+            long end = buffer.indexOf(crlfDelimiter);
+            if (end == -1) throw new ProtocolException("unterminated multipart body");
+            Buffer partBuffer = new Buffer();
+            buffer.read(partBuffer, end);
+            buffer.skip(crlfDelimiter.size());
+            parts.add(parsePart(partBuffer));
+        }
+        return parts;
+    }
+
+    private static Part parsePart(Buffer buffer) throws IOException {
+        Part part = new Part();
+        // part 的头
+        Headers partHeaders = readHeaders(buffer);
+        String contentId = partHeaders.get("Content-ID");
+        if (contentId != null) {
+            Matcher matcher = CONTENT_ID.matcher(contentId.trim());
+            if (matcher.find()) {
+                part.index = Integer.parseInt(matcher.group(1));
+            }
+        }
+
+        // 内嵌的 HTTP 响应
+        StatusLine statusLine = StatusLine.parse(readLine(buffer));
+        part.code = statusLine.code;
+        part.message = statusLine.message;
+        part.headers = readHeaders(buffer);
+        part.body = buffer.readByteArray();
+        return part;
+    }
+
+    private static Headers readHeaders(Buffer buffer) throws IOException {
+        Headers.Builder builder = new Headers.Builder();
+        for (String line = readLine(buffer); line.length() > 0; line = readLine(buffer)) {
+            builder.add(line);
+        }
+        return builder.build();
+    }
+
+    private static String readLine(Buffer buffer) throws IOException {
+        long newline = buffer.indexOf((byte) '\n');
+        if (newline == -1) {
+            return buffer.readUtf8();
+        }
+        String line = buffer.readUtf8(newline);
+        buffer.skip(1);
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+
+    private static void skipLine(Buffer buffer) throws IOException {
+        long newline = buffer.indexOf((byte) '\n');
+        buffer.skip(newline == -1 ? buffer.size() : newline + 1);
+    }
+
+    /**
+     * 一个批量请求, 其中的请求全部被取消时取消批量请求
+     */
+    private class Batch {
+        final Call call;
+        final int size;
+        // 由 BJBatcher.this 保护
+        int canceledCount;
+
+        Batch(Call call, int size) {
+            this.call = call;
+            this.size = size;
+        }
+
+        void onItemCanceled() {
+            synchronized (BJBatcher.this) {
+                if (++canceledCount < size) return;
+            }
+            Object tag = call.request().tag();
+            if (tag instanceof BJRequestTag) {
+                ((BJRequestTag) tag).cancel();
+            }
+            call.cancel();
+            mRequestManager.getNetworkClient().getDispatcher().cancel(call);
+        }
+    }
+
+    /**
+     * 合并器中的一个请求. 还在窗口中时取消直接移除; 单独发送后取消对应的 {@link BJNetCall};
+     * 合并发送后取消立即回调 onFailure, 忽略批量响应中对应的部分.
+     */
+    private class Item implements BJNetCall {
+        final Request request;
+        final Object tag;
+        final BJNetCallback callback;
+        // 以下字段由 BJBatcher.this 保护
+        BJNetCall single;
+        Batch batch;
+        boolean canceled;
+        boolean finished;
+
+        Item(Request request, Object tag, BJNetCallback callback) {
+            this.request = request;
+            this.tag = tag;
+            this.callback = callback;
+        }
+
+        /**
+         * @return 第一次调用时返回 true, 此时回调 callback. 保证只回调一次
+         */
+        boolean finish() {
+            synchronized (BJBatcher.this) {
+                if (finished) return false;
+                finished = true;
+                return true;
+            }
+        }
+
+        @Override
+        public void cancel() {
+            BJNetCall single;
+            Batch batch;
+            synchronized (BJBatcher.this) {
+                if (canceled) return;
+                canceled = true;
+                mPending.remove(this);
+                single = this.single;
+                batch = this.batch;
+            }
+            if (single != null) {
+                single.cancel();
+                return;
+            }
+
+            BJCallMetrics metrics = null;
+            if (request.tag() instanceof BJRequestTag) {
+                BJRequestTag requestTag = (BJRequestTag) request.tag();
+                requestTag.cancel();
+                metrics = requestTag.getMetrics();
+            }
+            if (finish()) {
+                callback.onFailure(HttpException.wrap(new IOException("Canceled"), metrics));
+                if (batch != null) {
+                    batch.onItemCanceled();
+                }
+            }
+        }
+
+        @Override
+        public void setPriority(BJCallPriority priority) {
+            throw new IllegalStateException("Already executed.");
+        }
+
+        @Override
+        public void setRetryPolicy(BJRetryPolicy retryPolicy) {
+            throw new IllegalStateException("Already executed.");
+        }
+
+        @Override
+        public void setTimeout(long connectTimeout, long readTimeout, long writeTimeout, TimeUnit unit) {
+            throw new IllegalStateException("Already executed.");
+        }
+
+        @Override
+        public void setStreaming(boolean streaming) {
+            throw new IllegalStateException("Already executed.");
+        }
+
+        @Override
+        public void setDeadline(long timeout, TimeUnit unit) {
+            throw new IllegalStateException("Already executed.");
+        }
+
+        @Override
+        public BJResponse executeSync(Object tag) throws IOException {
+            throw new IllegalStateException("Already executed.");
+        }
+
+        @Override
+        public void executeAsync(Object tag, BJNetCallback callback) {
+            throw new IllegalStateException("Already executed.");
+        }
+
+        @Override
+        public boolean isCanceled() {
+            synchronized (BJBatcher.this) {
+                return canceled;
+            }
+        }
+
+        @Override
+        public boolean isExecuted() {
+            BJNetCall single;
+            synchronized (BJBatcher.this) {
+                if (this.single == null) return !finished;
+                single = this.single;
+            }
+            return single.isExecuted();
+        }
+    }
+
+    static class Part {
+        int index;
+        int code;
+        String message;
+        Headers headers;
+        byte[] body;
+    }
+}
@@ -0,0 +1,152 @@
+package io.github.yangxlei.bjnetwork;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.CacheControl;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.internal.Util;
+import okio.Buffer;
+import okio.BufferedSource;
+
+/**
+ * 处理 {@link BJCachePolicy#STALE_IF_ERROR} 和 {@link BJCachePolicy#STALE_WHILE_REVALIDATE} 两种缓存策略.
+ * 其余策略直接通过请求的 Cache-Control 实现, 见 {@link BJNetRequestManager#buildRequest}.
+ */
+public class BJCacheInterceptor implements Interceptor {
+
+    private BJNetworkClient mNetworkClient;
+
+    // 正在后台刷新的 url, 避免同一个 url 重复刷新
+    private final Set<String> mRevalidatingUrls = Collections.synchronizedSet(new HashSet<String>());
+
+    public BJCacheInterceptor(BJNetworkClient networkClient) {
+        this.mNetworkClient = networkClient;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        if (!(request.tag() instanceof BJRequestTag) || !"GET".equals(request.method())) {
+            return chain.proceed(request);
+        }
+
+        BJRequestTag tag = (BJRequestTag) request.tag();
+        switch (tag.getCachePolicy()) {
+            case STALE_IF_ERROR:
+                return staleIfError(chain, request, tag);
+            case STALE_WHILE_REVALIDATE:
+                return staleWhileRevalidate(chain, request, tag);
+            default:
+                return chain.proceed(request);
+        }
+    }
+
+    private Response staleIfError(Chain chain, Request request, BJRequestTag tag) throws IOException {
+        Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException e) {
+            Response cached = proceedCacheOnly(chain, request, tag.getCacheTimeSeconds());
+            if (cached == null) throw e;
+            return cached;
+        }
+
+        if (response.code() >= 500) {
+            Response cached = proceedCacheOnly(chain, request, tag.getCacheTimeSeconds());
+            if (cached != null) {
+                Util.closeQuietly(response.body());
+                return cached;
+            }
+        }
+        return response;
+    }
+
+    private Response staleWhileRevalidate(Chain chain, Request request, BJRequestTag tag) throws IOException {
+        Response cached = proceedCacheOnly(chain, request, tag.getCacheTimeSeconds());
+        if (cached == null) {
+            return chain.proceed(request);
+        }
+
+        if (isStale(cached)) {
+            revalidate(request);
+        }
+        return cached;
+    }
+
+    /**
+     * 只读缓存 (允许过期).
+     * @return 缓存不存在时返回 null
+     */
+    private Response proceedCacheOnly(Chain chain, Request request, int cacheTimeSeconds) throws IOException {
+        CacheControl.Builder builder = new CacheControl.Builder()
+                .onlyIfCached()
+                .maxStale(Integer.MAX_VALUE, TimeUnit.SECONDS);
+        if (cacheTimeSeconds > 0) {
+            // 超过 cacheTime 的缓存被标记为过期 (Warning: 110)
+            builder.maxAge(cacheTimeSeconds, TimeUnit.SECONDS);
+        }
+        Request cacheRequest = request.newBuilder()
+                .cacheControl(builder.build())
+                .build();
+
+        Response response = chain.proceed(cacheRequest);
+        if (response.cacheResponse() == null) {
+            // 504 Unsatisfiable Request (only-if-cached)
+            Util.closeQuietly(response.body());
+            return null;
+        }
+        return response;
+    }
+
+    private void revalidate(Request request) {
+        final String url = request.url().toString();
+        if (!mRevalidatingUrls.add(url)) return;
+
+        // max-age=0 会带上 If-None-Match/If-Modified-Since 发起条件请求, 304 时只更新缓存的头信息.
+        Request revalidateRequest = request.newBuilder()
+                .cacheControl(new CacheControl.Builder().maxAge(0, TimeUnit.SECONDS).build())
+                .tag(new BJRequestTag(0, BJCachePolicy.DEFAULT))
+                .build();
+
+        mNetworkClient.getOkHttpClient().newCall(revalidateRequest).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                mRevalidatingUrls.remove(url);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                try {
+                    // 读完响应体才会写入缓存
+                    BufferedSource source = response.body().source();
+                    Buffer buffer = new Buffer();
+                    while (source.read(buffer, 8192) != -1) {
+                        buffer.clear();
+                    }
+                } finally {
+                    Util.closeQuietly(response.body());
+                    mRevalidatingUrls.remove(url);
+                }
+            }
+        });
+    }
+
+    static boolean isStale(Response response) {
+        List<String> warnings = response.headers("Warning");
+        for (String warning : warnings) {
+            if (warning.startsWith("110")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
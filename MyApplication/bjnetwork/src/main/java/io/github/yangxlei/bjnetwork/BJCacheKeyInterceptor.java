@@ -0,0 +1,100 @@
+package io.github.yangxlei.bjnetwork;
+
+import java.io.IOException;
+
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 缓存 key 归一化.
+ * OkHttp 的缓存以请求的 url 作为 key, 所以在缓存之前 ({@link #normalizeInterceptor()}, 应用拦截器)
+ * 把 url 改写为归一化后的 url, 在发送到网络之前 ({@link #restoreInterceptor()}, 网络拦截器) 还原为原始 url.
+ */
+public class BJCacheKeyInterceptor {
+
+    static final String HEADER_ORIGINAL_URL = "BJ-Original-Url";
+
+    private final BJCacheKeyNormalizer mNormalizer;
+    private final boolean mCompareMode;
+    private final BJCacheKeyStats mStats;
+
+    /**
+     * @param normalizer 归一化实现
+     * @param compareMode true: 只统计命中率 {@link BJCacheKeyStats}, 不改写缓存 key
+     */
+    public BJCacheKeyInterceptor(BJCacheKeyNormalizer normalizer, boolean compareMode) {
+        this.mNormalizer = normalizer;
+        this.mCompareMode = compareMode;
+        this.mStats = compareMode ? new BJCacheKeyStats() : null;
+    }
+
+    public BJCacheKeyStats getStats() {
+        return mStats;
+    }
+
+    /**
+     * @return 归一化后的 url. host 或 port 被改变时返回原始 url.
+     */
+    public HttpUrl normalize(HttpUrl url) {
+        HttpUrl normalized = mNormalizer.normalize(url);
+        if (normalized == null
+                || !normalized.scheme().equals(url.scheme())
+                || !normalized.host().equalsIgnoreCase(url.host())
+                || normalized.port() != url.port()) {
+            return url;
+        }
+        return normalized;
+    }
+
+    public Interceptor normalizeInterceptor() {
+        return new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                Request request = chain.request();
+                if (!"GET".equals(request.method())) {
+                    return chain.proceed(request);
+                }
+
+                HttpUrl url = request.url();
+                HttpUrl normalized = normalize(url);
+                if (mCompareMode) {
+                    mStats.record(url, normalized);
+                    return chain.proceed(request);
+                }
+                if (normalized.equals(url)) {
+                    return chain.proceed(request);
+                }
+
+                Request.Builder builder = request.newBuilder().url(normalized);
+                if (request.header(HEADER_ORIGINAL_URL) == null) {
+                    builder.header(HEADER_ORIGINAL_URL, url.toString());
+                }
+                Response response = chain.proceed(builder.build());
+                return response.newBuilder().request(request).build();
+            }
+        };
+    }
+
+    public Interceptor restoreInterceptor() {
+        return new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                Request request = chain.request();
+                String originalUrl = request.header(HEADER_ORIGINAL_URL);
+                if (originalUrl == null) {
+                    return chain.proceed(request);
+                }
+
+                Request.Builder builder = request.newBuilder().removeHeader(HEADER_ORIGINAL_URL);
+                HttpUrl url = HttpUrl.parse(originalUrl);
+                // 重定向后的请求会带上原请求的头, 这时 url 已经改变, 不能还原
+                if (url != null && normalize(url).equals(request.url())) {
+                    builder.url(url);
+                }
+                return chain.proceed(builder.build());
+            }
+        };
+    }
+}
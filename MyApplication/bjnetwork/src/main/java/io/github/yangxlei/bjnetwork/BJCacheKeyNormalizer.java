@@ -0,0 +1,12 @@
+package io.github.yangxlei.bjnetwork;
+
+import okhttp3.HttpUrl;
+
+/**
+ * 缓存 key 归一化. 内容相同的请求归一化后得到同一个 url, 从而命中同一条缓存.
+ * 归一化不能改变 scheme, host 和 port.
+ */
+public interface BJCacheKeyNormalizer {
+
+    HttpUrl normalize(HttpUrl url);
+}
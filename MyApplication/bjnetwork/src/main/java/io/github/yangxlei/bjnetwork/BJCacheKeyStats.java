@@ -0,0 +1,109 @@
+package io.github.yangxlei.bjnetwork;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.HttpUrl;
+
+/**
+ * 缓存 key 命中率对比. 分别统计原始 url 和归一化 url 在最近 N 个 key 中重复出现的次数,
+ * 用于估计归一化后缓存命中率的提升, 以调整忽略参数列表.
+ */
+public class BJCacheKeyStats {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private final KeySet mRawKeys;
+    private final KeySet mNormalizedKeys;
+
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mRawHitCount = new AtomicLong();
+    private final AtomicLong mNormalizedHitCount = new AtomicLong();
+
+    public BJCacheKeyStats() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public BJCacheKeyStats(int capacity) {
+        mRawKeys = new KeySet(capacity);
+        mNormalizedKeys = new KeySet(capacity);
+    }
+
+    void record(HttpUrl rawUrl, HttpUrl normalizedUrl) {
+        mRequestCount.incrementAndGet();
+        if (mRawKeys.addAndCheck(rawUrl.toString())) {
+            mRawHitCount.incrementAndGet();
+        }
+        if (mNormalizedKeys.addAndCheck(normalizedUrl.toString())) {
+            mNormalizedHitCount.incrementAndGet();
+        }
+    }
+
+    public long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * @return 使用原始 url 作为 key 时可能命中的次数
+     */
+    public long getRawHitCount() {
+        return mRawHitCount.get();
+    }
+
+    /**
+     * @return 使用归一化 url 作为 key 时可能命中的次数
+     */
+    public long getNormalizedHitCount() {
+        return mNormalizedHitCount.get();
+    }
+
+    public float getRawHitRate() {
+        long count = getRequestCount();
+        return count == 0 ? 0 : (float) getRawHitCount() / count;
+    }
+
+    public float getNormalizedHitRate() {
+        long count = getRequestCount();
+        return count == 0 ? 0 : (float) getNormalizedHitCount() / count;
+    }
+
+    public void reset() {
+        mRawKeys.clear();
+        mNormalizedKeys.clear();
+        mRequestCount.set(0);
+        mRawHitCount.set(0);
+        mNormalizedHitCount.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "BJCacheKeyStats{requests=" + getRequestCount()
+                + ", rawHitRate=" + getRawHitRate()
+                + ", normalizedHitRate=" + getNormalizedHitRate() + "}";
+    }
+
+    private static class KeySet {
+        private final LinkedHashMap<String, Boolean> mKeys;
+
+        private KeySet(final int capacity) {
+            mKeys = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        /**
+         * @return key 之前是否出现过
+         */
+        private synchronized boolean addAndCheck(String key) {
+            return mKeys.put(key, Boolean.TRUE) != null;
+        }
+
+        private synchronized void clear() {
+            mKeys.clear();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package io.github.yangxlei.bjnetwork;
+
+/**
+ * 单次请求的缓存策略.
+ */
+public enum BJCachePolicy {
+    /**
+     * 按 HTTP 缓存语义处理. 如果设置了 cacheTime, 缓存在有效期内直接返回.
+     */
+    DEFAULT,
+    /**
+     * 只走网络, 不读取缓存. 响应仍然会按 HTTP 语义写入缓存.
+     */
+    NETWORK_ONLY,
+    /**
+     * 只读缓存, 不发起网络请求. 缓存不存在时返回 504.
+     */
+    CACHE_ONLY,
+    /**
+     * 先走网络, 网络异常或者服务端返回 5xx 时, 返回缓存 (即使已过期).
+     */
+    STALE_IF_ERROR,
+    /**
+     * 有缓存时立即返回 (即使已过期), 缓存过期时在后台重新请求刷新缓存. 没有缓存时走网络.
+     */
+    STALE_WHILE_REVALIDATE
+}
@@ -0,0 +1,267 @@
+package io.github.yangxlei.bjnetwork;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单次请求的耗时统计. 时间单位毫秒.
+ * <ul>
+ * <li>queue: 从提交请求到开始执行的排队时间</li>
+ * <li>dns: 域名解析</li>
+ * <li>connect: TCP 建连</li>
+ * <li>tls: TLS 握手 (新建连接完成 TCP 建连到开始发送请求的时间)</li>
+ * <li>ttfb: 从开始发送请求到收到响应头</li>
+ * <li>body: 从收到响应头到读完响应体</li>
+ * </ul>
+ * 复用连接时 dns, connect, tls 为 0. 读完 (或关闭) 响应体之后统计才完整, 见 {@link #isFinished()}.
+ */
+public class BJCallMetrics {
+
+    private String method;
+    private String host;
+    private String path;
+    private String endpoint;
+
+    long enqueuedAtNanos;
+    long callStartNanos;
+    long connectEndNanos;
+    long headersAtNanos;
+    boolean newConnection;
+    boolean hedge;
+    // 请求使用的读超时, 0 表示未知
+    long readTimeoutMillis;
+
+    private long queueMillis;
+    private long dnsMillis;
+    private long connectMillis;
+    private long tlsMillis;
+    private long ttfbMillis;
+    private long bodyMillis;
+    private long totalMillis;
+    private long requestBytes;
+    private long responseBytes;
+    private boolean connectionReused;
+    private String protocol;
+    private int code = -1;
+    private boolean failed;
+    private boolean fromCache;
+    private int retryCount;
+    private volatile boolean finished;
+    private ScheduledFuture<?> deadlineTimer;
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return 路径模板, 见 {@link BJLatencyRecorder#pathTemplate(String)}. 不是通过 {@link BJNetRequestManager} 发起的请求为 null
+     */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    void setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    public long getQueueMillis() {
+        return queueMillis;
+    }
+
+    public long getDnsMillis() {
+        return dnsMillis;
+    }
+
+    public long getConnectMillis() {
+        return connectMillis;
+    }
+
+    public long getTlsMillis() {
+        return tlsMillis;
+    }
+
+    public long getTtfbMillis() {
+        return ttfbMillis;
+    }
+
+    public long getBodyMillis() {
+        return bodyMillis;
+    }
+
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    public long getRequestBytes() {
+        return requestBytes;
+    }
+
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    public boolean isConnectionReused() {
+        return connectionReused;
+    }
+
+    public String getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * @return 响应码. 没有收到响应时为 -1
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * @return 重试次数, 见 {@link BJRetryPolicy}. 耗时统计包含所有重试
+     */
+    public int getRetryCount() {
+        return retryCount;
+    }
+
+    void addRetry() {
+        retryCount++;
+    }
+
+    /**
+     * @return 是否是对冲请求, 见 {@link BJHedgePolicy}
+     */
+    public boolean isHedge() {
+        return hedge;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * @return 响应直接来自缓存 (包括过期缓存), 没有经过网络
+     */
+    public boolean isFromCache() {
+        return fromCache;
+    }
+
+    /**
+     * @return 响应体已经读完或者请求失败
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * 请求结束 (读完响应体或者失败) 时取消截止时间的定时任务
+     */
+    synchronized void setDeadlineTimer(ScheduledFuture<?> timer) {
+        if (finished) {
+            timer.cancel(false);
+        } else {
+            deadlineTimer = timer;
+        }
+    }
+
+    private synchronized void cancelDeadlineTimer() {
+        if (deadlineTimer != null) {
+            deadlineTimer.cancel(false);
+            deadlineTimer = null;
+        }
+    }
+
+    void callStart(String method, String host, String path) {
+        this.method = method;
+        this.host = host;
+        this.path = path;
+        this.callStartNanos = System.nanoTime();
+        if (enqueuedAtNanos > 0) {
+            this.queueMillis = millis(enqueuedAtNanos, callStartNanos);
+        }
+    }
+
+    void addDns(long startNanos, long endNanos) {
+        dnsMillis += millis(startNanos, endNanos);
+    }
+
+    void addConnect(long startNanos, long endNanos) {
+        connectMillis += millis(startNanos, endNanos);
+        connectEndNanos = endNanos;
+        newConnection = true;
+    }
+
+    void requestStart(long nanos, boolean secure, long requestBytes) {
+        if (newConnection) {
+            if (secure && connectEndNanos > 0) {
+                tlsMillis += millis(connectEndNanos, nanos);
+            }
+            connectionReused = false;
+        } else {
+            connectionReused = true;
+        }
+        newConnection = false;
+        this.requestBytes += requestBytes;
+    }
+
+    void responseHeaders(long requestStartNanos, long nanos, int code, String protocol) {
+        this.ttfbMillis = millis(requestStartNanos, nanos);
+        this.headersAtNanos = nanos;
+        this.code = code;
+        this.protocol = protocol;
+    }
+
+    void cacheResponse(long nanos, int code, String protocol) {
+        responseHeaders(callStartNanos, nanos, code, protocol);
+        this.fromCache = true;
+    }
+
+    void responseEnd(long responseBytes) {
+        long now = System.nanoTime();
+        this.responseBytes = responseBytes;
+        if (headersAtNanos > 0) {
+            this.bodyMillis = millis(headersAtNanos, now);
+        }
+        this.totalMillis = millis(callStartNanos, now);
+        this.finished = true;
+        cancelDeadlineTimer();
+    }
+
+    void callFailed() {
+        this.totalMillis = millis(callStartNanos, System.nanoTime());
+        this.failed = true;
+        this.finished = true;
+        cancelDeadlineTimer();
+    }
+
+    private static long millis(long startNanos, long endNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(endNanos - startNanos);
+    }
+
+    @Override
+    public String toString() {
+        return "BJCallMetrics{" + method + " " + host + path
+                + ", code=" + code
+                + ", protocol=" + protocol
+                + ", queue=" + queueMillis
+                + ", dns=" + dnsMillis
+                + ", connect=" + connectMillis
+                + ", tls=" + tlsMillis
+                + ", ttfb=" + ttfbMillis
+                + ", body=" + bodyMillis
+                + ", total=" + totalMillis
+                + ", requestBytes=" + requestBytes
+                + ", responseBytes=" + responseBytes
+                + ", reused=" + connectionReused
+                + (retryCount > 0 ? ", retries=" + retryCount : "")
+                + (hedge ? ", hedge" : "")
+                + (fromCache ? ", cache" : "")
+                + (failed ? ", failed" : "") + "}";
+    }
+}
@@ -0,0 +1,13 @@
+package io.github.yangxlei.bjnetwork;
+
+/**
+ * 请求耗时统计的全局监听, 在网络线程中回调.
+ */
+public interface BJCallMetricsListener {
+
+    /**
+     * 响应体读完 (或关闭) 或者请求失败时回调
+     * @param metrics {@link BJCallMetrics}
+     */
+    void onCallFinished(BJCallMetrics metrics);
+}
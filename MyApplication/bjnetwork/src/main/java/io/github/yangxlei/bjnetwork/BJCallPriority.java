@@ -0,0 +1,16 @@
+package io.github.yangxlei.bjnetwork;
+
+/**
+ * 请求优先级. 排队时高优先级的请求先执行, 同一优先级按先后顺序执行.
+ */
+public enum BJCallPriority {
+    /**
+     * 后台同步, 预加载等
+     */
+    LOW,
+    NORMAL,
+    /**
+     * 用户正在等待的请求
+     */
+    HIGH
+}
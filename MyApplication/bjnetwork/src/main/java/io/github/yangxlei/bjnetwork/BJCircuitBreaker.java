@@ -0,0 +1,314 @@
+package io.github.yangxlei.bjnetwork;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按 host 熔断. 统计每个 host 最近 windowSize 次网络请求, 失败率 (IOException 或 5xx) 或者慢请求比例超过阈值时熔断,
+ * 熔断期间的请求直接失败 ({@link CircuitBreakerException}), 不再等待超时.
+ * 熔断 openDuration 之后进入半开状态, 放行 halfOpenProbes 个探测请求: 全部成功时恢复, 任一失败时重新熔断.
+ * 通过 {@link BJNetworkClient.Builder#setCircuitBreaker} 启用.
+ */
+public class BJCircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    public interface Listener {
+        void onStateChanged(String host, State from, State to);
+    }
+
+    /**
+     * 熔断时请求抛出的异常, 回调中转换为 {@link CircuitBreakerException}
+     */
+    public static class CircuitOpenIOException extends IOException {
+        private final String host;
+
+        public CircuitOpenIOException(String host, long retryAfterMillis) {
+            super("circuit breaker is open for " + host + ", retry after " + retryAfterMillis + "ms");
+            this.host = host;
+        }
+
+        public String getHost() {
+            return host;
+        }
+    }
+
+    private final int windowSize;
+    private final int minimumCalls;
+    private final int failureRatePercent;
+    private final long slowCallNanos;
+    private final int slowCallRatePercent;
+    private final long openDurationNanos;
+    private final int halfOpenProbes;
+
+    private final ConcurrentHashMap<String, HostCircuit> mCircuits = new ConcurrentHashMap<>();
+    private volatile Listener mListener;
+
+    private BJCircuitBreaker(Builder builder) {
+        this.windowSize = builder.windowSize;
+        this.minimumCalls = Math.min(builder.minimumCalls, builder.windowSize);
+        this.failureRatePercent = builder.failureRatePercent;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(builder.slowCallMillis);
+        this.slowCallRatePercent = builder.slowCallRatePercent;
+        this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(builder.openDurationMillis);
+        this.halfOpenProbes = builder.halfOpenProbes;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public State getState(String host) {
+        HostCircuit circuit = mCircuits.get(host);
+        return circuit == null ? State.CLOSED : circuit.getState();
+    }
+
+    /**
+     * @return 所有统计过的 host 的状态
+     */
+    public Map<String, State> getStates() {
+        Map<String, State> states = new HashMap<>();
+        for (Map.Entry<String, HostCircuit> entry : mCircuits.entrySet()) {
+            states.put(entry.getKey(), entry.getValue().getState());
+        }
+        return states;
+    }
+
+    /**
+     * 清除 host 的统计, 恢复为 CLOSED
+     */
+    public void reset(String host) {
+        HostCircuit circuit = mCircuits.remove(host);
+        if (circuit != null) {
+            circuit.transition(State.CLOSED, System.nanoTime());
+        }
+    }
+
+    HostCircuit circuit(String host) {
+        HostCircuit circuit = mCircuits.get(host);
+        if (circuit == null) {
+            HostCircuit created = new HostCircuit(host);
+            circuit = mCircuits.putIfAbsent(host, created);
+            if (circuit == null) {
+                circuit = created;
+            }
+        }
+        return circuit;
+    }
+
+    class HostCircuit {
+        private final String host;
+        private State state = State.CLOSED;
+        private long openedAtNanos;
+
+        // 最近 windowSize 次请求的结果
+        private final boolean[] failures = new boolean[windowSize];
+        private final boolean[] slows = new boolean[windowSize];
+        private int next;
+        private int count;
+        private int failureCount;
+        private int slowCount;
+
+        private int probesInFlight;
+        private int probeSuccesses;
+        // 每次状态变化加一, 之前放行的请求的结果不再计入
+        private long generation;
+
+        private HostCircuit(String host) {
+            this.host = host;
+        }
+
+        synchronized State getState() {
+            return state;
+        }
+
+        /**
+         * 请求开始前调用, 放行的请求必须调用 {@link #onResult} 或 {@link #onCanceled}
+         * @return 放行凭证, 记录放行时的状态和是否是半开状态的探测请求
+         * @throws CircuitOpenIOException 熔断中
+         */
+        long acquire() throws CircuitOpenIOException {
+            long permit;
+            State from;
+            State to;
+            synchronized (this) {
+                long now = System.nanoTime();
+                from = state;
+                if (state == State.OPEN) {
+                    long elapsed = now - openedAtNanos;
+                    if (elapsed < openDurationNanos) {
+                        throw new CircuitOpenIOException(host,
+                                TimeUnit.NANOSECONDS.toMillis(openDurationNanos - elapsed));
+                    }
+                    setState(State.HALF_OPEN, now);
+                }
+                if (state == State.HALF_OPEN) {
+                    if (probesInFlight + probeSuccesses >= halfOpenProbes) {
+                        throw new CircuitOpenIOException(host, 0);
+                    }
+                    probesInFlight++;
+                }
+                permit = generation << 1 | (state == State.HALF_OPEN ? 1 : 0);
+                to = state;
+            }
+            notifyIfChanged(from, to);
+            return permit;
+        }
+
+        /**
+         * @param permit {@link #acquire()} 的返回值
+         * @param failed IOException 或 5xx
+         * @param durationNanos 发起请求到收到响应头的时间
+         */
+        void onResult(long permit, boolean failed, long durationNanos) {
+            State from;
+            State to;
+            synchronized (this) {
+                long now = System.nanoTime();
+                from = state;
+                boolean slow = durationNanos >= slowCallNanos;
+                // 放行之后状态已经变化的请求 (例如熔断之前发出的请求) 不计入
+                boolean current = permit >> 1 == generation;
+                if (current && isProbe(permit)) {
+                    probesInFlight--;
+                    if (failed || slow) {
+                        setState(State.OPEN, now);
+                    } else if (++probeSuccesses >= halfOpenProbes) {
+                        setState(State.CLOSED, now);
+                    }
+                } else if (current && state == State.CLOSED) {
+                    record(failed, slow);
+                    if (count >= minimumCalls
+                            && (failureCount * 100 >= failureRatePercent * count
+                            || slowCount * 100 >= slowCallRatePercent * count)) {
+                        setState(State.OPEN, now);
+                    }
+                }
+                to = state;
+            }
+            notifyIfChanged(from, to);
+        }
+
+        /**
+         * 放行的请求被取消, 没有结果
+         * @param permit {@link #acquire()} 的返回值
+         */
+        synchronized void onCanceled(long permit) {
+            if (isProbe(permit) && permit >> 1 == generation && probesInFlight > 0) {
+                probesInFlight--;
+            }
+        }
+
+        private boolean isProbe(long permit) {
+            return (permit & 1) != 0;
+        }
+
+        private void record(boolean failed, boolean slow) {
+            if (count == windowSize) {
+                if (failures[next]) failureCount--;
+                if (slows[next]) slowCount--;
+            } else {
+                count++;
+            }
+            failures[next] = failed;
+            slows[next] = slow;
+            if (failed) failureCount++;
+            if (slow) slowCount++;
+            next = (next + 1) % windowSize;
+        }
+
+        private void setState(State to, long now) {
+            state = to;
+            generation++;
+            if (to == State.OPEN) {
+                openedAtNanos = now;
+            }
+            if (to == State.CLOSED) {
+                next = count = failureCount = slowCount = 0;
+            }
+            probesInFlight = 0;
+            probeSuccesses = 0;
+        }
+
+        private void transition(State to, long now) {
+            State from;
+            synchronized (this) {
+                from = state;
+                setState(to, now);
+            }
+            notifyIfChanged(from, to);
+        }
+
+        private void notifyIfChanged(State from, State to) {
+            Listener listener = mListener;
+            if (from != to && listener != null) {
+                listener.onStateChanged(host, from, to);
+            }
+        }
+    }
+
+    public static class Builder {
+        private int windowSize = 20;
+        private int minimumCalls = 10;
+        private int failureRatePercent = 50;
+        private long slowCallMillis = 10 * 1000;
+        private int slowCallRatePercent = 100;
+        private long openDurationMillis = 30 * 1000;
+        private int halfOpenProbes = 3;
+
+        /**
+         * @param windowSize 统计最近的请求数, default 20
+         * @param minimumCalls 请求数达到该值才开始计算比例, default 10
+         */
+        public Builder setWindow(int windowSize, int minimumCalls) {
+            if (windowSize < 1 || minimumCalls < 1) throw new IllegalArgumentException("windowSize < 1");
+            this.windowSize = windowSize;
+            this.minimumCalls = minimumCalls;
+            return this;
+        }
+
+        /**
+         * @param failureRatePercent 失败率阈值, default 50
+         */
+        public Builder setFailureRateThreshold(int failureRatePercent) {
+            this.failureRatePercent = failureRatePercent;
+            return this;
+        }
+
+        /**
+         * @param slowCallMillis 收到响应头的时间超过该值视为慢请求, default 10s
+         * @param slowCallRatePercent 慢请求比例阈值, default 100
+         */
+        public Builder setSlowCallThreshold(long slowCallMillis, int slowCallRatePercent) {
+            this.slowCallMillis = slowCallMillis;
+            this.slowCallRatePercent = slowCallRatePercent;
+            return this;
+        }
+
+        /**
+         * @param openDurationMillis 熔断持续时间, default 30s
+         */
+        public Builder setOpenDuration(long openDurationMillis) {
+            this.openDurationMillis = openDurationMillis;
+            return this;
+        }
+
+        /**
+         * @param halfOpenProbes 半开状态放行的探测请求数, default 3
+         */
+        public Builder setHalfOpenProbes(int halfOpenProbes) {
+            if (halfOpenProbes < 1) throw new IllegalArgumentException("halfOpenProbes < 1");
+            this.halfOpenProbes = halfOpenProbes;
+            return this;
+        }
+
+        public BJCircuitBreaker build() {
+            return new BJCircuitBreaker(this);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package io.github.yangxlei.bjnetwork;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.CacheControl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.internal.Util;
+
+/**
+ * {@link BJCircuitBreaker} 的应用拦截器, 在缓存拦截器之内执行.
+ * 熔断时仍然返回满足请求条件的缓存, 没有缓存时抛出 {@link BJCircuitBreaker.CircuitOpenIOException}.
+ * 只统计实际发出的网络请求, 缓存命中不计入.
+ */
+class BJCircuitBreakerInterceptor implements Interceptor {
+
+    private final BJCircuitBreaker mCircuitBreaker;
+
+    BJCircuitBreakerInterceptor(BJCircuitBreaker circuitBreaker) {
+        this.mCircuitBreaker = circuitBreaker;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        BJCircuitBreaker.HostCircuit circuit = mCircuitBreaker.circuit(request.url().host());
+
+        long permit;
+        try {
+            permit = circuit.acquire();
+        } catch (BJCircuitBreaker.CircuitOpenIOException e) {
+            Response cached = proceedCacheOnly(chain, request);
+            if (cached == null) throw e;
+            return cached;
+        }
+
+        long startNanos = System.nanoTime();
+        Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException e) {
+            if (isCanceled(request, e)) {
+                circuit.onCanceled(permit);
+            } else {
+                circuit.onResult(permit, true, System.nanoTime() - startNanos);
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            circuit.onCanceled(permit);
+            throw e;
+        }
+
+        if (response.networkResponse() == null) {
+            // 缓存命中, 没有访问网络
+            circuit.onCanceled(permit);
+        } else {
+            circuit.onResult(permit, response.code() >= 500, System.nanoTime() - startNanos);
+        }
+        return response;
+    }
+
+    /**
+     * 取消时的异常不一定是 "Canceled", 读取过程中取消时是 "Socket closed" 等.
+     * 所有取消的途径 (用户取消, 截止时间, 对冲请求) 都会先标记 {@link BJRequestTag}
+     */
+    private static boolean isCanceled(Request request, IOException e) {
+        if (request.tag() instanceof BJRequestTag) {
+            return ((BJRequestTag) request.tag()).isCanceled();
+        }
+        return "Canceled".equals(e.getMessage());
+    }
+
+    /**
+     * 熔断时只读缓存, 保留原请求的缓存条件
+     * @return 没有满足条件的缓存时返回 null
+     */
+    private static Response proceedCacheOnly(Chain chain, Request request) throws IOException {
+        CacheControl cacheControl = request.cacheControl();
+        if (cacheControl.noCache() || !"GET".equals(request.method())) {
+            return null;
+        }
+        if (cacheControl.onlyIfCached()) {
+            return chain.proceed(request);
+        }
+
+        CacheControl.Builder builder = new CacheControl.Builder().onlyIfCached();
+        if (cacheControl.maxAgeSeconds() != -1) {
+            builder.maxAge(cacheControl.maxAgeSeconds(), TimeUnit.SECONDS);
+        }
+        if (cacheControl.maxStaleSeconds() != -1) {
+            builder.maxStale(cacheControl.maxStaleSeconds(), TimeUnit.SECONDS);
+        }
+        if (cacheControl.minFreshSeconds() != -1) {
+            builder.minFresh(cacheControl.minFreshSeconds(), TimeUnit.SECONDS);
+        }
+        Response response = chain.proceed(request.newBuilder().cacheControl(builder.build()).build());
+        if (response.cacheResponse() == null) {
+            Util.closeQuietly(response.body());
+            return null;
+        }
+        return response;
+    }
+}
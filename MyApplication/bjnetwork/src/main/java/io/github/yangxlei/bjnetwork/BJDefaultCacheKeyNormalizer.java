@@ -0,0 +1,64 @@
+package io.github.yangxlei.bjnetwork;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import okhttp3.HttpUrl;
+
+/**
+ * 默认的缓存 key 归一化:
+ * <ul>
+ * <li>host 转为小写</li>
+ * <li>去掉忽略列表中的参数 (例如统计参数, 时间戳)</li>
+ * <li>参数按名字排序, 同名参数保持原有顺序</li>
+ * </ul>
+ */
+public class BJDefaultCacheKeyNormalizer implements BJCacheKeyNormalizer {
+
+    private final Set<String> mIgnoredParameters;
+
+    public BJDefaultCacheKeyNormalizer(String... ignoredParameters) {
+        this.mIgnoredParameters = new HashSet<>(Arrays.asList(ignoredParameters));
+    }
+
+    public Set<String> getIgnoredParameters() {
+        return Collections.unmodifiableSet(mIgnoredParameters);
+    }
+
+    @Override
+    public HttpUrl normalize(HttpUrl url) {
+        HttpUrl.Builder builder = url.newBuilder()
+                .host(url.host().toLowerCase(Locale.US));
+
+        int size = url.querySize();
+        if (size == 0) {
+            return builder.build();
+        }
+
+        List<String[]> params = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String name = url.queryParameterName(i);
+            if (mIgnoredParameters.contains(name)) continue;
+            params.add(new String[]{name, url.queryParameterValue(i)});
+        }
+        // Collections.sort 是稳定排序, 同名参数的顺序不变
+        Collections.sort(params, new Comparator<String[]>() {
+            @Override
+            public int compare(String[] lhs, String[] rhs) {
+                return lhs[0].compareTo(rhs[0]);
+            }
+        });
+
+        builder.query(null);
+        for (String[] param : params) {
+            builder.addQueryParameter(param[0], param[1]);
+        }
+        return builder.build();
+    }
+}
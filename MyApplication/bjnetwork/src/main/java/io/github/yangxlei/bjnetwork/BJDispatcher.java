@@ -0,0 +1,333 @@
+package io.github.yangxlei.bjnetwork;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Response;
+
+/**
+ * 按优先级调度请求, 支持总数, 每个 host, 每个 tag 的并发限制.
+ * 请求在这里排队, 拿到执行名额之后才交给 OkHttp 的 Dispatcher 执行.
+ * OkHttp 的 Dispatcher 的并发限制和这里保持一致, 所以不会在 OkHttp 中再次排队.
+ */
+public class BJDispatcher {
+
+    public static final int DEFAULT_MAX_REQUESTS = 64;
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 5;
+
+    private int maxRequests;
+    private int maxRequestsPerHost;
+    private final Map<Object, Integer> mMaxRequestsPerTag = new WeakHashMap<>();
+
+    // 每个优先级一个队列, 下标为 BJCallPriority.ordinal()
+    private final List<ArrayDeque<PendingCall>> mReadyCalls;
+
+    private int mRunningCount;
+    private final Map<String, Integer> mRunningPerHost = new HashMap<>();
+    private final Map<Object, Integer> mRunningPerTag = new HashMap<>();
+    // 排队和执行中的 LOW 以上优先级的请求数
+    private int mForegroundCount;
+
+    public BJDispatcher(int maxRequests, int maxRequestsPerHost) {
+        if (maxRequests < 1) throw new IllegalArgumentException("maxRequests < 1: " + maxRequests);
+        if (maxRequestsPerHost < 1) throw new IllegalArgumentException("maxRequestsPerHost < 1: " + maxRequestsPerHost);
+        this.maxRequests = maxRequests;
+        this.maxRequestsPerHost = maxRequestsPerHost;
+
+        BJCallPriority[] priorities = BJCallPriority.values();
+        mReadyCalls = new ArrayList<>(priorities.length);
+        for (int i = 0; i < priorities.length; i++) {
+            mReadyCalls.add(new ArrayDeque<PendingCall>());
+        }
+    }
+
+    public synchronized int getMaxRequests() {
+        return maxRequests;
+    }
+
+    public synchronized int getMaxRequestsPerHost() {
+        return maxRequestsPerHost;
+    }
+
+    /**
+     * 限制某个 tag 的并发数. tag 即 {@link BJNetCall#executeAsync(Object, BJNetCallback)} 中的 tag.
+     * @param tag 请求所属的 tag
+     * @param maxRequests <= 0 时取消限制
+     */
+    public void setMaxRequestsPerTag(Object tag, int maxRequests) {
+        if (tag == null) throw new IllegalArgumentException("tag == null");
+        List<PendingCall> promoted;
+        synchronized (this) {
+            if (maxRequests <= 0) {
+                mMaxRequestsPerTag.remove(tag);
+            } else {
+                mMaxRequestsPerTag.put(tag, maxRequests);
+            }
+            promoted = promoteCalls();
+        }
+        start(promoted);
+    }
+
+    public synchronized int runningCallsCount() {
+        return mRunningCount;
+    }
+
+    public synchronized int queuedCallsCount() {
+        int count = 0;
+        for (ArrayDeque<PendingCall> queue : mReadyCalls) {
+            count += queue.size();
+        }
+        return count;
+    }
+
+    /**
+     * 等待没有 {@link BJCallPriority#LOW} 以上优先级的请求在排队或执行. 用于后台预加载让出网络
+     */
+    synchronized void awaitForegroundIdle() throws InterruptedException {
+        while (mForegroundCount > 0) {
+            wait();
+        }
+    }
+
+    /**
+     * 异步执行. 拿到执行名额后调用 {@link Call#enqueue(Callback)}
+     */
+    public void enqueue(Call call, Object tag, Callback callback) {
+        List<PendingCall> promoted;
+        synchronized (this) {
+            add(new PendingCall(call, tag, callback));
+            promoted = promoteCalls();
+        }
+        start(promoted);
+    }
+
+    /**
+     * 同步执行. 当前线程等待拿到执行名额后调用 {@link Call#execute()}
+     */
+    public Response execute(Call call, Object tag) throws IOException {
+        PendingCall pendingCall = new PendingCall(call, tag, null);
+        List<PendingCall> promoted;
+        synchronized (this) {
+            add(pendingCall);
+            promoted = promoteCalls();
+        }
+        start(promoted);
+
+        boolean interrupted = false;
+        synchronized (this) {
+            try {
+                while (!pendingCall.admitted && !pendingCall.canceled) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+                if (mReadyCalls.get(pendingCall.priority.ordinal()).remove(pendingCall)) {
+                    removed(pendingCall);
+                }
+            }
+        }
+        if (interrupted) {
+            if (pendingCall.admitted) {
+                finished(pendingCall);
+            }
+            throw new InterruptedIOException();
+        }
+        if (pendingCall.canceled) {
+            throw new IOException("Canceled");
+        }
+
+        try {
+            return call.execute();
+        } finally {
+            finished(pendingCall);
+        }
+    }
+
+    /**
+     * 取消还在排队的请求. 异步请求回调 onFailure, 同步请求抛出 IOException.
+     */
+    public void cancel(Call call) {
+        PendingCall canceled = null;
+        synchronized (this) {
+            for (ArrayDeque<PendingCall> queue : mReadyCalls) {
+                Iterator<PendingCall> iterator = queue.iterator();
+                while (iterator.hasNext()) {
+                    PendingCall pendingCall = iterator.next();
+                    if (pendingCall.call == call) {
+                        iterator.remove();
+                        removed(pendingCall);
+                        canceled = pendingCall;
+                        break;
+                    }
+                }
+            }
+            if (canceled != null && canceled.callback == null) {
+                canceled.canceled = true;
+                notifyAll();
+                return;
+            }
+        }
+        if (canceled != null) {
+            canceled.callback.onFailure(call, new IOException("Canceled"));
+        }
+    }
+
+    private void finished(PendingCall pendingCall) {
+        List<PendingCall> promoted;
+        synchronized (this) {
+            mRunningCount--;
+            decrement(mRunningPerHost, pendingCall.host);
+            if (pendingCall.tag != null) {
+                decrement(mRunningPerTag, pendingCall.tag);
+            }
+            removed(pendingCall);
+            promoted = promoteCalls();
+        }
+        start(promoted);
+    }
+
+    private void add(PendingCall pendingCall) {
+        mReadyCalls.get(pendingCall.priority.ordinal()).add(pendingCall);
+        if (pendingCall.priority != BJCallPriority.LOW) {
+            mForegroundCount++;
+        }
+    }
+
+    /**
+     * 请求结束或者被移出队列
+     */
+    private void removed(PendingCall pendingCall) {
+        if (pendingCall.priority != BJCallPriority.LOW && --mForegroundCount == 0) {
+            // 唤醒 awaitForegroundIdle
+            notifyAll();
+        }
+    }
+
+    /**
+     * 按优先级从高到低挑选可以执行的请求. 被 host 或 tag 限制的请求不会阻塞后面的请求.
+     */
+    private List<PendingCall> promoteCalls() {
+        List<PendingCall> promoted = null;
+        for (int i = mReadyCalls.size() - 1; i >= 0 && mRunningCount < maxRequests; i--) {
+            Iterator<PendingCall> iterator = mReadyCalls.get(i).iterator();
+            while (iterator.hasNext() && mRunningCount < maxRequests) {
+                PendingCall pendingCall = iterator.next();
+                if (count(mRunningPerHost, pendingCall.host) >= maxRequestsPerHost) continue;
+                if (pendingCall.tag != null) {
+                    Integer maxPerTag = mMaxRequestsPerTag.get(pendingCall.tag);
+                    if (maxPerTag != null && count(mRunningPerTag, pendingCall.tag) >= maxPerTag) continue;
+                }
+
+                iterator.remove();
+                mRunningCount++;
+                increment(mRunningPerHost, pendingCall.host);
+                if (pendingCall.tag != null) {
+                    increment(mRunningPerTag, pendingCall.tag);
+                }
+                pendingCall.admitted = true;
+                recordQueueWait(pendingCall);
+
+                if (pendingCall.callback == null) {
+                    // 同步请求, 唤醒等待的线程
+                    notifyAll();
+                } else {
+                    if (promoted == null) promoted = new ArrayList<>();
+                    promoted.add(pendingCall);
+                }
+            }
+        }
+        return promoted;
+    }
+
+    private void start(List<PendingCall> promoted) {
+        if (promoted == null) return;
+        for (final PendingCall pendingCall : promoted) {
+            pendingCall.call.enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    try {
+                        pendingCall.callback.onFailure(call, e);
+                    } finally {
+                        finished(pendingCall);
+                    }
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) throws IOException {
+                    try {
+                        pendingCall.callback.onResponse(call, response);
+                    } finally {
+                        finished(pendingCall);
+                    }
+                }
+            });
+        }
+    }
+
+    private void recordQueueWait(PendingCall pendingCall) {
+        Object requestTag = pendingCall.call.request().tag();
+        if (requestTag instanceof BJRequestTag) {
+            long waitMillis = (System.nanoTime() - pendingCall.enqueuedAtNanos) / 1000000;
+            ((BJRequestTag) requestTag).setQueueWaitMillis(waitMillis);
+        }
+    }
+
+    private static BJCallPriority priorityOf(Call call) {
+        Object requestTag = call.request().tag();
+        if (requestTag instanceof BJRequestTag) {
+            return ((BJRequestTag) requestTag).getPriority();
+        }
+        return BJCallPriority.NORMAL;
+    }
+
+    private static <K> int count(Map<K, Integer> map, K key) {
+        Integer count = map.get(key);
+        return count == null ? 0 : count;
+    }
+
+    private static <K> void increment(Map<K, Integer> map, K key) {
+        map.put(key, count(map, key) + 1);
+    }
+
+    private static <K> void decrement(Map<K, Integer> map, K key) {
+        int count = count(map, key) - 1;
+        if (count <= 0) {
+            map.remove(key);
+        } else {
+            map.put(key, count);
+        }
+    }
+
+    private static class PendingCall {
+        private final Call call;
+        private final Object tag;
+        private final String host;
+        private final Callback callback;
+        private final BJCallPriority priority;
+        private final long enqueuedAtNanos;
+        private boolean admitted;
+        private boolean canceled;
+
+        private PendingCall(Call call, Object tag, Callback callback) {
+            this.call = call;
+            this.tag = tag;
+            this.host = call.request().url().host();
+            this.callback = callback;
+            this.priority = priorityOf(call);
+            this.enqueuedAtNanos = System.nanoTime();
+            Object requestTag = call.request().tag();
+            if (requestTag instanceof BJRequestTag) {
+                ((BJRequestTag) requestTag).getMetrics().enqueuedAtNanos = enqueuedAtNanos;
+            }
+        }
+    }
+}
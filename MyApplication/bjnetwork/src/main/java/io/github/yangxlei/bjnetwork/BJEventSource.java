@@ -0,0 +1,270 @@
+package io.github.yangxlei.bjnetwork;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Dispatcher;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.BufferedSource;
+
+/**
+ * Server-Sent Events 客户端. 在单独的线程中逐行读取 text/event-stream, 每个事件回调 {@link BJEventSourceListener}.
+ * 连接断开后等待 retry 时间 (默认 3s, 服务端的 retry 字段可以修改) 重新连接, 请求头带上 Last-Event-ID.
+ * 使用 BJNetworkClient 的连接池, DNS 和 Cookie, 不占用 {@link BJDispatcher} 的并发名额.
+ * 通过 {@link BJNetRequestManager#newEventSource} 创建.
+ */
+public class BJEventSource {
+
+    public static final long DEFAULT_RETRY_MILLIS = 3000;
+
+    private static final MediaType EVENT_STREAM = MediaType.parse("text/event-stream");
+
+    private final BJNetRequestManager mRequestManager;
+    private final String mUrl;
+    private final Map<String, String> mHeaders;
+    private final BJEventSourceListener mListener;
+    private long readTimeoutMillis;
+
+    private volatile String lastEventId;
+    private volatile long retryMillis = DEFAULT_RETRY_MILLIS;
+    private volatile boolean closed;
+    private Thread mThread;
+    private Call mCall;
+
+    BJEventSource(BJNetRequestManager requestManager, String url, Map<String, String> headers,
+                  BJEventSourceListener listener) {
+        if (listener == null) {
+            throw new NullPointerException("listener is null.");
+        }
+        this.mRequestManager = requestManager;
+        this.mUrl = url;
+        this.mHeaders = headers;
+        this.mListener = listener;
+    }
+
+    /**
+     * 设置读超时, 需要在 connect 之前调用. 服务端定时发送心跳时, 可以设置为大于心跳间隔, 及时发现断开的连接.
+     * @param timeout default 0, 不超时
+     */
+    public void setReadTimeout(long timeout, TimeUnit unit) {
+        this.readTimeoutMillis = unit.toMillis(timeout);
+    }
+
+    /**
+     * @param lastEventId 第一次连接时发送的 Last-Event-ID, 用于从上次的位置继续接收
+     */
+    public void setLastEventId(String lastEventId) {
+        this.lastEventId = lastEventId;
+    }
+
+    public String getLastEventId() {
+        return lastEventId;
+    }
+
+    /**
+     * @return 重连前等待的时间, 单位毫秒
+     */
+    public long getRetryMillis() {
+        return retryMillis;
+    }
+
+    public String getUrl() {
+        return mUrl;
+    }
+
+    public synchronized void connect() {
+        if (mThread != null) {
+            throw new IllegalStateException("Already connected.");
+        }
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "BJEventSource " + mUrl);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * 断开连接, 不再重连
+     */
+    public void close() {
+        Call call;
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            call = mCall;
+            notifyAll();
+        }
+        if (call != null) {
+            call.cancel();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private void loop() {
+        // 长连接使用单独的 Dispatcher, 不占用其他请求的并发数和计数
+        OkHttpClient client = mRequestManager.getNetworkClient().getOkHttpClient().newBuilder()
+                .dispatcher(new Dispatcher())
+                .readTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS)
+                .build();
+        HttpException closeCause = null;
+        while (!closed) {
+            HttpException cause;
+            try {
+                if (!read(client)) {
+                    break;
+                }
+                cause = null;
+            } catch (HttpException e) {
+                // 服务端拒绝, 不再重连
+                closeCause = e;
+                break;
+            } catch (IOException e) {
+                if (closed) break;
+                cause = HttpException.wrap(e, null);
+            }
+
+            mListener.onReconnect(this, cause);
+            synchronized (this) {
+                long waitUntil = System.currentTimeMillis() + retryMillis;
+                for (long now = System.currentTimeMillis(); !closed && now < waitUntil;
+                     now = System.currentTimeMillis()) {
+                    try {
+                        wait(waitUntil - now);
+                    } catch (InterruptedException e) {
+                        closed = true;
+                    }
+                }
+            }
+        }
+        closed = true;
+        mListener.onClosed(this, closeCause);
+    }
+
+    /**
+     * 连接并读取事件, 直到响应结束
+     * @return false 表示不再重连
+     */
+    private boolean read(OkHttpClient client) throws IOException {
+        Request.Builder builder = mRequestManager.buildRequest(BJNetRequestManager.HttpMethod.GET, null, mUrl, 0,
+                mHeaders).newBuilder()
+                .header("Accept", "text/event-stream")
+                .header("Cache-Control", "no-cache");
+        String eventId = lastEventId;
+        if (eventId != null && !eventId.isEmpty()) {
+            builder.header("Last-Event-ID", eventId);
+        }
+
+        Call call;
+        synchronized (this) {
+            if (closed) return false;
+            call = client.newCall(builder.build());
+            mCall = call;
+        }
+
+        Response response = call.execute();
+        try {
+            if (response.code() == 204) {
+                return false;
+            }
+            if (!response.isSuccessful()) {
+                throw new HttpException(new BJResponse(response));
+            }
+            MediaType contentType = response.body().contentType();
+            if (contentType == null || !EVENT_STREAM.type().equals(contentType.type())
+                    || !EVENT_STREAM.subtype().equals(contentType.subtype())) {
+                throw HttpException.wrap(new ProtocolException("unexpected Content-Type: " + contentType), null);
+            }
+
+            mListener.onOpen(this);
+            parse(response.body().source());
+            return !closed;
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * 按 https://html.spec.whatwg.org/multipage/server-sent-events.html 解析事件流
+     */
+    private void parse(BufferedSource source) throws IOException {
+        StringBuilder data = new StringBuilder();
+        String eventType = null;
+        String line;
+        while (!closed && (line = source.readUtf8Line()) != null) {
+            if (line.isEmpty()) {
+                // 空行分发事件
+                if (data.length() > 0) {
+                    data.setLength(data.length() - 1);
+                    mListener.onEvent(this, new BJServerSentEvent(lastEventId,
+                            eventType == null ? "message" : eventType, data.toString()));
+                }
+                data.setLength(0);
+                eventType = null;
+                continue;
+            }
+            if (line.charAt(0) == ':') {
+                // 注释, 通常用作心跳
+                continue;
+            }
+
+            String field;
+            String value;
+            int colon = line.indexOf(':');
+            if (colon == -1) {
+                field = line;
+                value = "";
+            } else {
+                field = line.substring(0, colon);
+                int start = colon + 1;
+                if (start < line.length() && line.charAt(start) == ' ') start++;
+                value = line.substring(start);
+            }
+
+            switch (field) {
+                case "data":
+                    data.append(value).append('\n');
+                    break;
+                case "event":
+                    eventType = value;
+                    break;
+                case "id":
+                    if (value.indexOf('\0') == -1) {
+                        lastEventId = value;
+                    }
+                    break;
+                case "retry":
+                    // 按规范只接受 ASCII 数字, 负数会导致不等待立即重连
+                    if (isAsciiDigits(value)) {
+                        try {
+                            retryMillis = Long.parseLong(value);
+                        } catch (NumberFormatException ignore) {
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private static boolean isAsciiDigits(String value) {
+        if (value.isEmpty()) return false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,26 @@
+package io.github.yangxlei.bjnetwork;
+
+/**
+ * {@link BJEventSource} 的回调, 在 BJEventSource 的读取线程中调用
+ */
+public interface BJEventSourceListener {
+
+    /**
+     * 连接成功, 开始接收事件
+     */
+    void onOpen(BJEventSource eventSource);
+
+    void onEvent(BJEventSource eventSource, BJServerSentEvent event);
+
+    /**
+     * 连接断开, {@link BJEventSource#getRetryMillis()} 之后带上 Last-Event-ID 重新连接
+     * @param cause 断开的原因, 服务端正常结束响应时为 null
+     */
+    void onReconnect(BJEventSource eventSource, HttpException cause);
+
+    /**
+     * 不再重连. 调用 {@link BJEventSource#close()}, 服务端返回 204, 或者返回的不是 text/event-stream
+     * @param cause 关闭的原因, 调用 close() 或者服务端返回 204 时为 null
+     */
+    void onClosed(BJEventSource eventSource, HttpException cause);
+}
@@ -0,0 +1,99 @@
+package io.github.yangxlei.bjnetwork;
+
+/**
+ * GET 请求的对冲策略. 请求发出 delay 之后还没有收到响应头时, 再发出一个相同的请求, 先返回的响应生效, 另一个被取消.
+ * delay 取该 host 的 "发出请求到收到响应头" 耗时的 percentile 分位 (见 {@link BJLatencyRecorder#getHostFirstByteHistogram}),
+ * 只统计网络请求, 不包括缓存命中和排队时间. 限制在 [minDelay, maxDelay] 之间, 样本不足时使用 defaultDelay.
+ * 对冲请求数受 {@link BJRetryBudget} 限制, 默认不超过请求量的 5%.
+ */
+public class BJHedgePolicy {
+
+    private final double percentile;
+    private final long minDelayMillis;
+    private final long maxDelayMillis;
+    private final long defaultDelayMillis;
+    private final int minSamples;
+    private final BJRetryBudget mBudget;
+
+    private BJHedgePolicy(Builder builder) {
+        this.percentile = builder.percentile;
+        this.minDelayMillis = builder.minDelayMillis;
+        this.maxDelayMillis = builder.maxDelayMillis;
+        this.defaultDelayMillis = builder.defaultDelayMillis;
+        this.minSamples = builder.minSamples;
+        this.mBudget = builder.mBudget;
+    }
+
+    /**
+     * @return 对冲预算, 可以查看对冲请求数
+     */
+    public BJRetryBudget getBudget() {
+        return mBudget;
+    }
+
+    /**
+     * @return 发出对冲请求之前等待的时间, 单位毫秒
+     */
+    public long hedgeDelayMillis(BJLatencyRecorder recorder, String host) {
+        BJLatencyHistogram histogram = recorder == null ? null : recorder.getHostFirstByteHistogram(host);
+        if (histogram == null || histogram.getCount() < minSamples) {
+            return defaultDelayMillis;
+        }
+        long delay = histogram.getPercentile(percentile);
+        return Math.max(minDelayMillis, Math.min(maxDelayMillis, delay));
+    }
+
+    public static class Builder {
+        private double percentile = 95;
+        private long minDelayMillis = 50;
+        private long maxDelayMillis = 3 * 1000;
+        private long defaultDelayMillis = 1000;
+        private int minSamples = 20;
+        private BJRetryBudget mBudget;
+
+        /**
+         * @param percentile 0 ~ 100, default 95
+         */
+        public Builder setPercentile(double percentile) {
+            if (percentile <= 0 || percentile > 100) throw new IllegalArgumentException("percentile");
+            this.percentile = percentile;
+            return this;
+        }
+
+        /**
+         * @param minDelayMillis default 50ms
+         * @param maxDelayMillis default 3s
+         */
+        public Builder setDelayBounds(long minDelayMillis, long maxDelayMillis) {
+            if (minDelayMillis < 0 || maxDelayMillis < minDelayMillis) throw new IllegalArgumentException("delay bounds");
+            this.minDelayMillis = minDelayMillis;
+            this.maxDelayMillis = maxDelayMillis;
+            return this;
+        }
+
+        /**
+         * @param defaultDelayMillis 样本数少于 minSamples 时使用, default 1s
+         * @param minSamples default 20
+         */
+        public Builder setDefaultDelay(long defaultDelayMillis, int minSamples) {
+            this.defaultDelayMillis = defaultDelayMillis;
+            this.minSamples = minSamples;
+            return this;
+        }
+
+        /**
+         * @param budget 对冲预算, default new BJRetryBudget(0.05, 5, 50)
+         */
+        public Builder setBudget(BJRetryBudget budget) {
+            this.mBudget = budget;
+            return this;
+        }
+
+        public BJHedgePolicy build() {
+            if (mBudget == null) {
+                mBudget = new BJRetryBudget(0.05, 5, 50);
+            }
+            return new BJHedgePolicy(this);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package io.github.yangxlei.bjnetwork;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.internal.Util;
+
+/**
+ * 执行一个对冲的 GET 请求, 见 {@link BJHedgePolicy}.
+ * 对冲请求使用新的 {@link BJRequestTag}, 在 BJDispatcher 中同样排队. HTTP/1.1 下正在使用的连接不能复用,
+ * 所以对冲请求会使用另一个连接, 新建连接时优先连接 DNS 返回的下一个地址.
+ * 两个请求都失败时才返回失败.
+ */
+class BJHedgedCall {
+
+    private final BJNetworkClient mClient;
+    private final OkHttpClient mOkHttpClient;
+    private final BJDispatcher mDispatcher;
+    private final BJHedgePolicy mPolicy;
+    private final ScheduledExecutorService mScheduler;
+    private final Call mPrimary;
+
+    private Callback mCallback;
+    private Call mHedge;
+    private ScheduledFuture<?> mHedgeTimer;
+    private ScheduledFuture<?> mDeadlineTimer;
+    private int mPending;
+    private boolean mDone;
+    private boolean mCanceled;
+
+    /**
+     * @param okHttpClient 主请求使用的 OkHttpClient (单次请求的超时), 对冲请求使用同样的超时
+     */
+    BJHedgedCall(BJNetworkClient client, OkHttpClient okHttpClient, BJHedgePolicy policy, Call primary) {
+        this.mClient = client;
+        this.mOkHttpClient = okHttpClient;
+        this.mDispatcher = client.getDispatcher();
+        this.mPolicy = policy;
+        this.mScheduler = client.getScheduler();
+        this.mPrimary = primary;
+    }
+
+    /**
+     * 截止时间的定时任务, 先返回的请求读完响应体或者两个请求都失败时取消
+     */
+    synchronized void setDeadlineTimer(ScheduledFuture<?> deadlineTimer) {
+        mDeadlineTimer = deadlineTimer;
+    }
+
+    void enqueue(final Object tag, Callback callback) {
+        synchronized (this) {
+            mCallback = callback;
+            mPending = 1;
+        }
+        mPolicy.getBudget().onRequest();
+        mDispatcher.enqueue(mPrimary, tag, new Attempt());
+
+        long delay = mPolicy.hedgeDelayMillis(mClient.getLatencyRecorder(), mPrimary.request().url().host());
+        ScheduledFuture<?> timer = mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                hedge(tag);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+        synchronized (this) {
+            mHedgeTimer = timer;
+            if (mDone || mCanceled) {
+                timer.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * 同步执行, 当前线程等待先返回的响应
+     */
+    Response execute(Object tag) throws IOException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Response[] response = new Response[1];
+        final IOException[] failure = new IOException[1];
+        enqueue(tag, new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                failure[0] = e;
+                latch.countDown();
+            }
+
+            @Override
+            public void onResponse(Call call, Response r) {
+                response[0] = r;
+                latch.countDown();
+            }
+        });
+
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            cancel();
+            throw new InterruptedIOException();
+        }
+        if (failure[0] != null) throw failure[0];
+        return response[0];
+    }
+
+    void cancel() {
+        Call hedge;
+        synchronized (this) {
+            mCanceled = true;
+            hedge = mHedge;
+            if (mHedgeTimer != null) {
+                mHedgeTimer.cancel(false);
+            }
+        }
+        cancel(mPrimary);
+        if (hedge != null) {
+            cancel(hedge);
+        }
+    }
+
+    boolean isCanceled() {
+        return mPrimary.isCanceled();
+    }
+
+    private void hedge(Object tag) {
+        Call hedge;
+        synchronized (this) {
+            if (mDone || mCanceled || !mPolicy.getBudget().tryAcquireRetry()) return;
+
+            Request primaryRequest = mPrimary.request();
+            Object primaryTag = primaryRequest.tag();
+            BJRequestTag hedgeTag = primaryTag instanceof BJRequestTag
+                    ? ((BJRequestTag) primaryTag).newHedgeTag()
+                    : new BJRequestTag(0, BJCachePolicy.DEFAULT);
+            hedge = mOkHttpClient.newCall(primaryRequest.newBuilder().tag(hedgeTag).build());
+            mHedge = hedge;
+            mPending++;
+        }
+        mDispatcher.enqueue(hedge, tag, new Attempt());
+    }
+
+    private void cancel(Call call) {
+        Object tag = call.request().tag();
+        if (tag instanceof BJRequestTag) {
+            ((BJRequestTag) tag).cancel();
+        }
+        call.cancel();
+        mDispatcher.cancel(call);
+    }
+
+    private class Attempt implements Callback {
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            synchronized (BJHedgedCall.this) {
+                mPending--;
+                if (mDone) return;
+                if (mPending > 0 && !mCanceled) return;
+                // 对冲请求还没有发出, 或者两个请求都失败了
+                mDone = true;
+                if (mHedgeTimer != null) {
+                    mHedgeTimer.cancel(false);
+                }
+                if (mDeadlineTimer != null) {
+                    mDeadlineTimer.cancel(false);
+                }
+            }
+            mCallback.onFailure(call, e);
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) throws IOException {
+            Call loser;
+            synchronized (BJHedgedCall.this) {
+                mPending--;
+                if (mDone) {
+                    Util.closeQuietly(response.body());
+                    return;
+                }
+                mDone = true;
+                if (mHedgeTimer != null) {
+                    mHedgeTimer.cancel(false);
+                }
+                loser = call == mPrimary ? mHedge : mPrimary;
+                Object tag = call.request().tag();
+                if (mDeadlineTimer != null && tag instanceof BJRequestTag) {
+                    ((BJRequestTag) tag).getMetrics().setDeadlineTimer(mDeadlineTimer);
+                }
+            }
+            if (loser != null) {
+                cancel(loser);
+            }
+            mCallback.onResponse(call, response);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package io.github.yangxlei.bjnetwork;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 无锁的延迟直方图, 单位毫秒.
+ * 0 ~ 63ms 每 1ms 一个桶, 之后每个 2 的幂区间分为 32 个桶, 相对误差约 3%.
+ * {@link #record(long)} 只做原子自增, 不加锁也不分配内存.
+ */
+public class BJLatencyHistogram {
+
+    private static final int LINEAR_BUCKETS = 64;
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // 最大记录 2^25 ms (约 9 小时), 超过的值记录在最后一个桶
+    private static final int MAX_EXPONENT = 25;
+    private static final int BUCKET_COUNT = LINEAR_BUCKETS + (MAX_EXPONENT - 6 + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    public void record(long millis) {
+        if (millis < 0) millis = 0;
+        mBuckets.incrementAndGet(bucketIndex(millis));
+        mCount.incrementAndGet();
+        mSum.addAndGet(millis);
+        long max = mMax.get();
+        while (millis > max && !mMax.compareAndSet(max, millis)) {
+            max = mMax.get();
+        }
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    /**
+     * @param percentile 0 ~ 100, 例如 99.9
+     * @return 对应分位的延迟, 没有数据时返回 -1
+     */
+    public long getPercentile(double percentile) {
+        long count = mCount.get();
+        if (count == 0) return -1;
+        long target = (long) Math.ceil(count * percentile / 100);
+        if (target < 1) target = 1;
+
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mBuckets.get(i);
+            if (seen >= target) {
+                return Math.min(bucketUpperBound(i), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    public BJLatencySnapshot snapshot() {
+        return snapshot(false);
+    }
+
+    /**
+     * 获取快照并清空数据
+     */
+    public BJLatencySnapshot snapshotAndReset() {
+        return snapshot(true);
+    }
+
+    private BJLatencySnapshot snapshot(boolean reset) {
+        long[] buckets = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = reset ? mBuckets.getAndSet(i, 0) : mBuckets.get(i);
+            count += buckets[i];
+        }
+        long sum = reset ? mSum.getAndSet(0) : mSum.get();
+        long max = reset ? mMax.getAndSet(0) : mMax.get();
+        if (reset) {
+            mCount.addAndGet(-count);
+        }
+
+        return new BJLatencySnapshot(count,
+                count == 0 ? 0 : sum / count,
+                percentile(buckets, count, max, 50),
+                percentile(buckets, count, max, 90),
+                percentile(buckets, count, max, 99),
+                percentile(buckets, count, max, 99.9),
+                max);
+    }
+
+    private static long percentile(long[] buckets, long count, long max, double percentile) {
+        if (count == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= target) {
+                return Math.min(bucketUpperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * 所有计数减半, 保留分布的形状, 之后记录的数据权重更大. 只有 1 个样本的桶保留
+     */
+    void decay() {
+        long removed = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long half = mBuckets.get(i) / 2;
+            if (half > 0) {
+                mBuckets.addAndGet(i, -half);
+                removed += half;
+            }
+        }
+        mCount.addAndGet(-removed);
+        long sum = mSum.get();
+        mSum.addAndGet(-sum / 2);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+        return LINEAR_BUCKETS + (exponent - 6) * SUB_BUCKETS + subBucket;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+        int exponent = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 6;
+        int subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (1L << exponent) + (subBucket + 1) * width - 1;
+    }
+}
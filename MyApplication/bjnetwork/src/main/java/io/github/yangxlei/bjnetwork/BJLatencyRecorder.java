@@ -0,0 +1,187 @@
+package io.github.yangxlei.bjnetwork;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按 host 和接口 (host + path 模板) 聚合请求延迟. 只统计经过网络的请求, 直接来自缓存的响应不计入.
+ * 路径中的数字, uuid, 长 hex 段被替换为 {id}, 例如 /user/123/info -> /user/{id}/info.
+ * 路径模板在构建请求时计算, 在网络线程中记录时只做 map 查找和原子自增, 不加锁也不分配内存 (首次出现的 key 除外).
+ */
+public class BJLatencyRecorder implements BJCallMetricsListener {
+
+    private static final String ID = "{id}";
+
+    private final ConcurrentHashMap<String, HostStats> mHosts = new ConcurrentHashMap<>();
+
+    @Override
+    public void onCallFinished(BJCallMetrics metrics) {
+        if (metrics.isFailed() || metrics.isFromCache() || metrics.getHost() == null) return;
+
+        HostStats hostStats = mHosts.get(metrics.getHost());
+        if (hostStats == null) {
+            hostStats = new HostStats();
+            HostStats previous = mHosts.putIfAbsent(metrics.getHost(), hostStats);
+            if (previous != null) hostStats = previous;
+        }
+        hostStats.total.record(metrics.getTotalMillis());
+        hostStats.ttfb.record(metrics.getQueueMillis() + metrics.getDnsMillis() + metrics.getConnectMillis()
+                + metrics.getTlsMillis() + metrics.getTtfbMillis());
+
+        String endpoint = metrics.getEndpoint();
+        if (endpoint == null) return;
+        BJLatencyHistogram histogram = hostStats.endpoints.get(endpoint);
+        if (histogram == null) {
+            histogram = new BJLatencyHistogram();
+            BJLatencyHistogram previous = hostStats.endpoints.putIfAbsent(endpoint, histogram);
+            if (previous != null) histogram = previous;
+        }
+        histogram.record(metrics.getTotalMillis());
+    }
+
+    /**
+     * 记录一次网络请求从发出请求到收到响应头的时间, 每次重试单独记录. 读超时的请求记为不小于当时的读超时
+     */
+    void recordFirstByte(String host, long millis) {
+        HostStats hostStats = mHosts.get(host);
+        if (hostStats == null) {
+            hostStats = new HostStats();
+            HostStats previous = mHosts.putIfAbsent(host, hostStats);
+            if (previous != null) hostStats = previous;
+        }
+        hostStats.firstByte.record(millis);
+    }
+
+    /**
+     * @return host 的请求总耗时直方图, 没有数据时返回 null
+     */
+    public BJLatencyHistogram getHostHistogram(String host) {
+        HostStats hostStats = mHosts.get(host);
+        return hostStats == null ? null : hostStats.total;
+    }
+
+    /**
+     * @return host 从发起请求到收到响应头的耗时直方图, 没有数据时返回 null
+     */
+    public BJLatencyHistogram getHostHeadersHistogram(String host) {
+        HostStats hostStats = mHosts.get(host);
+        return hostStats == null ? null : hostStats.ttfb;
+    }
+
+    /**
+     * @return host 从发出请求到收到响应头的耗时直方图, 不包括排队, DNS, 建连和 TLS, 包括读超时的请求.
+     * 没有数据时返回 null. 见 {@link BJAdaptiveTimeout}
+     */
+    public BJLatencyHistogram getHostFirstByteHistogram(String host) {
+        HostStats hostStats = mHosts.get(host);
+        return hostStats == null ? null : hostStats.firstByte;
+    }
+
+    /**
+     * @return host -> 延迟分布
+     */
+    public Map<String, BJLatencySnapshot> snapshotHosts() {
+        Map<String, BJLatencySnapshot> result = new TreeMap<>();
+        for (Map.Entry<String, HostStats> entry : mHosts.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().total.snapshot());
+        }
+        return result;
+    }
+
+    /**
+     * @return "host path模板" -> 延迟分布
+     */
+    public Map<String, BJLatencySnapshot> snapshotEndpoints() {
+        Map<String, BJLatencySnapshot> result = new TreeMap<>();
+        for (Map.Entry<String, HostStats> host : mHosts.entrySet()) {
+            for (Map.Entry<String, BJLatencyHistogram> endpoint : host.getValue().endpoints.entrySet()) {
+                result.put(host.getKey() + " " + endpoint.getKey(), endpoint.getValue().snapshot());
+            }
+        }
+        return result;
+    }
+
+    public void reset() {
+        mHosts.clear();
+    }
+
+    /**
+     * 导出并清空数据, {@link #getHostFirstByteHistogram} 的数据只减半. 每行一条:
+     * <pre>
+     * host path模板 count mean p50 p90 p99 p999 max
+     * </pre>
+     * path模板为 * 时表示该 host 的汇总.
+     */
+    public String exportAndReset() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, HostStats> host : new TreeMap<>(mHosts).entrySet()) {
+            BJLatencySnapshot snapshot = host.getValue().total.snapshotAndReset();
+            host.getValue().ttfb.snapshotAndReset();
+            // BJAdaptiveTimeout 依赖该分布, 不清空, 只衰减旧数据
+            host.getValue().firstByte.decay();
+            if (snapshot.getCount() == 0) continue;
+            builder.append(host.getKey()).append(" * ").append(snapshot).append('\n');
+            for (Map.Entry<String, BJLatencyHistogram> endpoint :
+                    new TreeMap<>(host.getValue().endpoints).entrySet()) {
+                BJLatencySnapshot endpointSnapshot = endpoint.getValue().snapshotAndReset();
+                if (endpointSnapshot.getCount() == 0) continue;
+                builder.append(host.getKey()).append(' ').append(endpoint.getKey())
+                        .append(' ').append(endpointSnapshot).append('\n');
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 路径模板, 把数字, uuid, 长 hex 段替换为 {id}
+     */
+    public static String pathTemplate(String encodedPath) {
+        if (encodedPath == null || encodedPath.isEmpty()) return "/";
+        StringBuilder builder = null;
+        int start = 0;
+        int length = encodedPath.length();
+        while (start < length) {
+            int end = encodedPath.indexOf('/', start + 1);
+            if (end == -1) end = length;
+            // 段不包括开头的 '/'
+            int segmentStart = encodedPath.charAt(start) == '/' ? start + 1 : start;
+            if (isId(encodedPath, segmentStart, end)) {
+                if (builder == null) {
+                    builder = new StringBuilder(length).append(encodedPath, 0, start);
+                }
+                builder.append(encodedPath, start, segmentStart).append(ID);
+            } else if (builder != null) {
+                builder.append(encodedPath, start, end);
+            }
+            start = end;
+        }
+        return builder == null ? encodedPath : builder.toString();
+    }
+
+    private static boolean isId(String path, int start, int end) {
+        int length = end - start;
+        if (length == 0) return false;
+
+        boolean allDigits = true;
+        boolean allHex = true;
+        boolean hasDigit = false;
+        for (int i = start; i < end; i++) {
+            char c = path.charAt(i);
+            boolean digit = c >= '0' && c <= '9';
+            boolean hex = digit || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F') || c == '-';
+            hasDigit |= digit;
+            allDigits &= digit;
+            allHex &= hex;
+        }
+        // 纯数字, 或者至少 8 位且包含数字的 hex/uuid
+        return allDigits || (allHex && hasDigit && length >= 8);
+    }
+
+    private static class HostStats {
+        private final BJLatencyHistogram total = new BJLatencyHistogram();
+        private final BJLatencyHistogram ttfb = new BJLatencyHistogram();
+        private final BJLatencyHistogram firstByte = new BJLatencyHistogram();
+        private final ConcurrentHashMap<String, BJLatencyHistogram> endpoints = new ConcurrentHashMap<>();
+    }
+}
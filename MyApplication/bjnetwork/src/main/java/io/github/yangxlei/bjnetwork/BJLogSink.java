@@ -0,0 +1,334 @@
+package io.github.yangxlei.bjnetwork;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.internal.Util;
+import okio.BufferedSink;
+import okio.Okio;
+
+/**
+ * 异步批量日志输出.
+ * 日志写入固定大小的环形缓冲区后立即返回, 由后台线程批量写到 logcat 或者滚动文件. 缓冲区满时丢弃新日志.
+ * 调用方应先检查 {@link #isLoggable(int)} 再拼接日志内容, 关闭日志时网络线程不做任何日志相关的工作.
+ */
+public class BJLogSink {
+
+    /**
+     * 日志输出目标, 在后台线程中调用
+     */
+    public interface Target {
+        /**
+         * @param count 本批日志条数, 数组中只有前 count 个有效
+         */
+        void write(long[] times, int[] priorities, String[] tags, String[] messages, int count) throws IOException;
+    }
+
+    public static final int DEFAULT_CAPACITY = 1024;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 200;
+
+    private final Target mTarget;
+    private final long flushIntervalMillis;
+    // 攒够该数量时立即写入
+    private final int mBatchSize;
+    private volatile int minPriority = Log.VERBOSE;
+
+    // 环形缓冲区
+    private final long[] mTimes;
+    private final int[] mPriorities;
+    private final String[] mTags;
+    private final String[] mMessages;
+    private int mHead;
+    private int mSize;
+    private boolean mFlushRequested;
+    private boolean mClosed;
+
+    private final AtomicLong mDroppedCount = new AtomicLong();
+    private final WriterThread mWriterThread;
+
+    public BJLogSink(Target target) {
+        this(target, DEFAULT_CAPACITY, DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param target 输出目标, 见 {@link #logcat()}, {@link #rollingFile(File, String, long, int)}
+     * @param capacity 缓冲区大小 (日志条数)
+     * @param flushIntervalMillis 批量写入的间隔. 缓冲区超过一半时立即写入
+     */
+    public BJLogSink(Target target, int capacity, long flushIntervalMillis) {
+        if (target == null) throw new IllegalArgumentException("target == null");
+        if (capacity < 1) throw new IllegalArgumentException("capacity < 1");
+        this.mTarget = target;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.mBatchSize = Math.max(1, capacity / 2);
+        mTimes = new long[capacity];
+        mPriorities = new int[capacity];
+        mTags = new String[capacity];
+        mMessages = new String[capacity];
+
+        mWriterThread = new WriterThread(capacity);
+        mWriterThread.start();
+    }
+
+    /**
+     * @param minPriority 低于该级别的日志不输出, 例如 {@link Log#INFO}
+     */
+    public void setMinPriority(int minPriority) {
+        this.minPriority = minPriority;
+    }
+
+    public boolean isLoggable(int priority) {
+        return priority >= minPriority;
+    }
+
+    /**
+     * @return 缓冲区满被丢弃的日志条数
+     */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    public void log(int priority, String tag, String message) {
+        if (!isLoggable(priority)) return;
+
+        synchronized (this) {
+            if (mClosed) return;
+            int capacity = mMessages.length;
+            if (mSize == capacity) {
+                mDroppedCount.incrementAndGet();
+                return;
+            }
+            int index = (mHead + mSize) % capacity;
+            mTimes[index] = System.currentTimeMillis();
+            mPriorities[index] = priority;
+            mTags[index] = tag;
+            mMessages[index] = message;
+            mSize++;
+            // 第一条日志唤醒空闲的后台线程开始计时, 其余情况由后台线程按 flushIntervalMillis 批量写入
+            if (mSize == 1 || mSize >= mBatchSize) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 唤醒后台线程立即写入
+     */
+    public synchronized void flush() {
+        mFlushRequested = true;
+        notifyAll();
+    }
+
+    /**
+     * 写入缓冲区中剩余的日志后停止后台线程. 之后的日志被忽略
+     */
+    public void close() {
+        synchronized (this) {
+            if (mClosed) return;
+            mClosed = true;
+            notifyAll();
+        }
+        if (Thread.currentThread() == mWriterThread) return;
+        try {
+            mWriterThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return 输出到该 sink 的 {@link HttpLoggingInterceptor.Logger}
+     */
+    public HttpLoggingInterceptor.Logger httpLogger(final String tag) {
+        return new HttpLoggingInterceptor.Logger() {
+            @Override
+            public void log(String message) {
+                BJLogSink.this.log(Log.INFO, tag, message);
+            }
+        };
+    }
+
+    /**
+     * 从缓冲区取出一批日志. 缓冲区为空时一直等待, 不定时唤醒.
+     * 收到第一条日志后等待攒够半个缓冲区, 或者到达写入间隔, 或者 flush/close
+     */
+    private synchronized int drain(long[] times, int[] priorities, String[] tags, String[] messages)
+            throws InterruptedException {
+        while (!mClosed && !mFlushRequested && mSize == 0) {
+            wait();
+        }
+        long deadline = System.currentTimeMillis() + flushIntervalMillis;
+        while (!mClosed && !mFlushRequested && mSize < mBatchSize) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) break;
+            wait(remaining);
+        }
+        mFlushRequested = false;
+
+        int count = mSize;
+        int capacity = mMessages.length;
+        for (int i = 0; i < count; i++) {
+            int index = (mHead + i) % capacity;
+            times[i] = mTimes[index];
+            priorities[i] = mPriorities[index];
+            tags[i] = mTags[index];
+            messages[i] = mMessages[index];
+            mTags[index] = null;
+            mMessages[index] = null;
+        }
+        mHead = (mHead + count) % capacity;
+        mSize = 0;
+        return count;
+    }
+
+    private synchronized boolean isClosedAndEmpty() {
+        return mClosed && mSize == 0;
+    }
+
+    private class WriterThread extends Thread {
+        private final long[] times;
+        private final int[] priorities;
+        private final String[] tags;
+        private final String[] messages;
+
+        private WriterThread(int capacity) {
+            super("BJLogSink");
+            setDaemon(true);
+            setPriority(Thread.MIN_PRIORITY);
+            times = new long[capacity];
+            priorities = new int[capacity];
+            tags = new String[capacity];
+            messages = new String[capacity];
+        }
+
+        @Override
+        public void run() {
+            while (!interrupted()) {
+                int count;
+                try {
+                    count = drain(times, priorities, tags, messages);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (count > 0) {
+                    try {
+                        mTarget.write(times, priorities, tags, messages, count);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                    for (int i = 0; i < count; i++) {
+                        tags[i] = null;
+                        messages[i] = null;
+                    }
+                }
+                if (isClosedAndEmpty()) break;
+            }
+        }
+    }
+
+    /**
+     * 输出到 logcat. 同一 tag 和级别的连续日志合并为一次输出.
+     */
+    public static Target logcat() {
+        return new Target() {
+            // logcat 单条日志长度有限制
+            private static final int MAX_LENGTH = 4000;
+            private final StringBuilder mBuilder = new StringBuilder();
+
+            @Override
+            public void write(long[] times, int[] priorities, String[] tags, String[] messages, int count) {
+                int start = 0;
+                while (start < count) {
+                    mBuilder.setLength(0);
+                    mBuilder.append(messages[start]);
+                    int end = start + 1;
+                    while (end < count && priorities[end] == priorities[start]
+                            && tags[end].equals(tags[start])
+                            && mBuilder.length() + messages[end].length() + 1 <= MAX_LENGTH) {
+                        mBuilder.append('\n').append(messages[end]);
+                        end++;
+                    }
+                    Log.println(priorities[start], tags[start], mBuilder.toString());
+                    start = end;
+                }
+            }
+        };
+    }
+
+    /**
+     * 输出到滚动文件. 文件超过 maxFileBytes 时, name 重命名为 name.1, name.1 重命名为 name.2, 依此类推,
+     * 最多保留 maxFiles 个文件.
+     */
+    public static Target rollingFile(final File dir, final String name, final long maxFileBytes, final int maxFiles) {
+        if (maxFiles < 1) throw new IllegalArgumentException("maxFiles < 1");
+        return new Target() {
+            private final SimpleDateFormat mDateFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+            private final Date mDate = new Date();
+
+            @Override
+            public void write(long[] times, int[] priorities, String[] tags, String[] messages, int count)
+                    throws IOException {
+                if (!dir.exists()) {
+                    dir.mkdirs();
+                }
+                File file = new File(dir, name);
+                if (file.length() >= maxFileBytes) {
+                    roll();
+                }
+
+                BufferedSink sink = Okio.buffer(Okio.appendingSink(file));
+                try {
+                    for (int i = 0; i < count; i++) {
+                        mDate.setTime(times[i]);
+                        sink.writeUtf8(mDateFormat.format(mDate))
+                                .writeUtf8(" ")
+                                .writeUtf8(priorityName(priorities[i]))
+                                .writeUtf8("/")
+                                .writeUtf8(tags[i])
+                                .writeUtf8(": ")
+                                .writeUtf8(messages[i])
+                                .writeByte('\n');
+                    }
+                } finally {
+                    Util.closeQuietly(sink);
+                }
+            }
+
+            private void roll() {
+                new File(dir, name + "." + (maxFiles - 1)).delete();
+                for (int i = maxFiles - 2; i >= 0; i--) {
+                    File from = new File(dir, i == 0 ? name : name + "." + i);
+                    if (from.exists()) {
+                        from.renameTo(new File(dir, name + "." + (i + 1)));
+                    }
+                }
+                if (maxFiles == 1) {
+                    new File(dir, name).delete();
+                }
+            }
+        };
+    }
+
+    private static String priorityName(int priority) {
+        switch (priority) {
+            case Log.VERBOSE:
+                return "V";
+            case Log.DEBUG:
+                return "D";
+            case Log.INFO:
+                return "I";
+            case Log.WARN:
+                return "W";
+            case Log.ERROR:
+                return "E";
+            default:
+                return String.valueOf(priority);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package io.github.yangxlei.bjnetwork;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.SocketFactory;
+
+import okhttp3.Connection;
+import okhttp3.Dns;
+import okhttp3.Headers;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * 收集 {@link BJCallMetrics}.
+ * OkHttp 在执行请求的线程中完成 DNS 解析和建连, 所以应用拦截器把当前请求的 BJCallMetrics 放入 ThreadLocal,
+ * Dns, SocketFactory 和网络拦截器从 ThreadLocal 中取出并记录.
+ */
+class BJMetricsCollector {
+
+    private final ThreadLocal<BJCallMetrics> mCurrentMetrics = new ThreadLocal<>();
+    private final BJCallMetricsListener mListener;
+    private final BJLatencyRecorder mLatencyRecorder;
+
+    BJMetricsCollector(BJCallMetricsListener listener, BJLatencyRecorder latencyRecorder) {
+        this.mListener = listener;
+        this.mLatencyRecorder = latencyRecorder;
+    }
+
+    /**
+     * 应用拦截器, 需要添加在所有拦截器之前.
+     */
+    Interceptor interceptor() {
+        return new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                Request request = chain.request();
+                final BJCallMetrics metrics = request.tag() instanceof BJRequestTag
+                        ? ((BJRequestTag) request.tag()).getMetrics() : new BJCallMetrics();
+                metrics.callStart(request.method(), request.url().host(), request.url().encodedPath());
+
+                BJCallMetrics previous = mCurrentMetrics.get();
+                mCurrentMetrics.set(metrics);
+                Response response;
+                try {
+                    response = chain.proceed(request);
+                } catch (IOException e) {
+                    metrics.callFailed();
+                    notifyFinished(metrics);
+                    throw e;
+                } finally {
+                    mCurrentMetrics.set(previous);
+                }
+
+                if (metrics.headersAtNanos == 0) {
+                    // 缓存响应, 没有经过网络拦截器
+                    metrics.cacheResponse(System.nanoTime(), response.code(), response.protocol().toString());
+                }
+                return response.newBuilder()
+                        .body(new MetricsResponseBody(response.body(), metrics))
+                        .build();
+            }
+        };
+    }
+
+    /**
+     * 网络拦截器, 需要添加在所有网络拦截器之后.
+     */
+    Interceptor networkInterceptor() {
+        return new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                Request request = chain.request();
+                BJCallMetrics metrics = mCurrentMetrics.get();
+                if (metrics == null) {
+                    return chain.proceed(request);
+                }
+
+                Connection connection = chain.connection();
+                long startNanos = System.nanoTime();
+                metrics.requestStart(startNanos, connection != null && connection.handshake() != null,
+                        requestBytes(request));
+                Response response;
+                try {
+                    response = chain.proceed(request);
+                } catch (SocketTimeoutException e) {
+                    if (mLatencyRecorder != null) {
+                        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                        mLatencyRecorder.recordFirstByte(request.url().host(),
+                                Math.max(elapsed, metrics.readTimeoutMillis));
+                    }
+                    throw e;
+                }
+                long headersNanos = System.nanoTime();
+                metrics.responseHeaders(startNanos, headersNanos, response.code(), response.protocol().toString());
+                if (mLatencyRecorder != null) {
+                    mLatencyRecorder.recordFirstByte(request.url().host(),
+                            TimeUnit.NANOSECONDS.toMillis(headersNanos - startNanos));
+                }
+                return response;
+            }
+        };
+    }
+
+    Dns dns(final Dns delegate) {
+        return new Dns() {
+            @Override
+            public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+                BJCallMetrics metrics = mCurrentMetrics.get();
+                long startNanos = System.nanoTime();
+                try {
+                    List<InetAddress> addresses = delegate.lookup(hostname);
+                    if (metrics != null && metrics.hedge && addresses.size() > 1) {
+                        // 对冲请求新建连接时优先使用另一个地址
+                        addresses = new ArrayList<>(addresses);
+                        Collections.rotate(addresses, -1);
+                    }
+                    return addresses;
+                } finally {
+                    if (metrics != null) {
+                        metrics.addDns(startNanos, System.nanoTime());
+                    }
+                }
+            }
+        };
+    }
+
+    SocketFactory socketFactory() {
+        return new MetricsSocketFactory(SocketFactory.getDefault());
+    }
+
+    private void notifyFinished(BJCallMetrics metrics) {
+        if (mLatencyRecorder != null) {
+            mLatencyRecorder.onCallFinished(metrics);
+        }
+        if (mListener == null) return;
+        try {
+            mListener.onCallFinished(metrics);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static long requestBytes(Request request) throws IOException {
+        long bytes = 0;
+        Headers headers = request.headers();
+        for (int i = 0, count = headers.size(); i < count; i++) {
+            // name: value\r\n
+            bytes += headers.name(i).length() + headers.value(i).length() + 4;
+        }
+        if (request.body() != null && request.body().contentLength() > 0) {
+            bytes += request.body().contentLength();
+        }
+        return bytes;
+    }
+
+    private class MetricsSocketFactory extends SocketFactory {
+        private final SocketFactory mDelegate;
+
+        private MetricsSocketFactory(SocketFactory delegate) {
+            this.mDelegate = delegate;
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            // OkHttp 使用未连接的 socket, 再调用 connect()
+            return new Socket() {
+                @Override
+                public void connect(SocketAddress endpoint, int timeout) throws IOException {
+                    BJCallMetrics metrics = mCurrentMetrics.get();
+                    long startNanos = System.nanoTime();
+                    super.connect(endpoint, timeout);
+                    if (metrics != null) {
+                        metrics.addConnect(startNanos, System.nanoTime());
+                    }
+                }
+            };
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return mDelegate.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return mDelegate.createSocket(host, port, localHost, localPort);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return mDelegate.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            return mDelegate.createSocket(address, port, localAddress, localPort);
+        }
+    }
+
+    private class MetricsResponseBody extends ResponseBody {
+        private final ResponseBody mResponseBody;
+        private final BJCallMetrics mMetrics;
+        private BufferedSource mBufferedSource;
+        private long mBytesRead;
+        private boolean mFinished;
+
+        private MetricsResponseBody(ResponseBody responseBody, BJCallMetrics metrics) {
+            this.mResponseBody = responseBody;
+            this.mMetrics = metrics;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return mResponseBody.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return mResponseBody.contentLength();
+        }
+
+        @Override
+        public BufferedSource source() {
+            if (mBufferedSource == null) {
+                mBufferedSource = Okio.buffer(new ForwardingSource(mResponseBody.source()) {
+                    @Override
+                    public long read(Buffer sink, long byteCount) throws IOException {
+                        long bytesRead = super.read(sink, byteCount);
+                        if (bytesRead == -1) {
+                            finish();
+                        } else {
+                            mBytesRead += bytesRead;
+                        }
+                        return bytesRead;
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        finish();
+                        super.close();
+                    }
+                });
+            }
+            return mBufferedSource;
+        }
+
+        private void finish() {
+            if (mFinished) return;
+            mFinished = true;
+            mMetrics.responseEnd(mBytesRead);
+            notifyFinished(mMetrics);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package io.github.yangxlei.bjnetwork;
 
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 import okhttp3.Response;
 
@@ -11,6 +12,38 @@ public interface BJNetCall {
 
     void cancel();
 
+    /**
+     * 设置请求优先级, 需要在执行之前调用. 排队时按优先级调度, 见 {@link BJDispatcher}
+     * @param priority default {@link BJCallPriority#NORMAL}
+     */
+    void setPriority(BJCallPriority priority);
+
+    /**
+     * 设置单次请求的重试策略, 需要在执行之前调用. 覆盖 {@link BJNetRequestManager#setRetryPolicy}
+     * @param retryPolicy {@link BJRetryPolicy}
+     */
+    void setRetryPolicy(BJRetryPolicy retryPolicy);
+
+    /**
+     * 设置单次请求的超时, 需要在执行之前调用. 覆盖 {@link BJNetworkClient} 的超时设置
+     * @param connectTimeout <= 0 时使用 BJNetworkClient 的设置
+     * @param readTimeout <= 0 时使用 BJNetworkClient 的设置
+     * @param writeTimeout <= 0 时使用 BJNetworkClient 的设置
+     */
+    void setTimeout(long connectTimeout, long readTimeout, long writeTimeout, TimeUnit unit);
+
+    /**
+     * 标记为流式请求, 需要在执行之前调用. 流式请求长时间读取响应体 (推送, NDJSON, 分块下载等),
+     * 数据之间的间隔与收到响应头的时间无关, 所以不使用 {@link BJAdaptiveTimeout}, 也不对冲
+     */
+    void setStreaming(boolean streaming);
+
+    /**
+     * 设置整个请求的截止时间, 需要在执行之前调用. 从执行开始计算, 包括排队, 重试和读取响应体.
+     * 超过截止时间请求被取消, 执行时抛出 InterruptedIOException("deadline exceeded"), 读取响应体时抛出 IOException
+     */
+    void setDeadline(long timeout, TimeUnit unit);
+
     /**
      * 同步执行请求
      * @param tag 请求所属的 tag. 如果 tag 被 JVM 回收, 会自动关闭对应的请求
@@ -13,7 +13,13 @@ public abstract class BJNetCallback implements Callback {
 
     @Override
     public void onFailure(Call call, IOException e) {
-        onFailure(new HttpException(e));
+        BJCallMetrics metrics = null;
+        if (call.request().tag() instanceof BJRequestTag) {
+            BJRequestTag tag = (BJRequestTag) call.request().tag();
+            metrics = tag.getMetrics();
+            e = tag.deadlineException(e);
+        }
+        onFailure(HttpException.wrap(e, metrics));
     }
 
     @Override
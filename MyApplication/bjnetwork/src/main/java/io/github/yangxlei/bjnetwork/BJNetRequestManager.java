@@ -6,13 +6,16 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import okhttp3.CacheControl;
 import okhttp3.Call;
 import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
@@ -40,6 +43,9 @@ public class BJNetRequestManager {
     private BJNetworkClient mNetworkClient;
     private BJNetResourceManager mResourceManager;
     private WeakHashMap<Object, BJProgressCallback> mProgressCallbacks = new WeakHashMap<>();
+    private BJPrefetcher mPrefetcher;
+    private volatile BJRetryPolicy mRetryPolicy;
+    private volatile BJHedgePolicy mHedgePolicy;
 
     public BJNetRequestManager(BJNetworkClient client) {
         assert (client != null);
@@ -67,6 +73,8 @@ public class BJNetRequestManager {
                         }
                     }
                 })
+                // 失败重试, 在上传进度拦截器之内, 重试时重新计算上传进度
+                .addInterceptor(new BJRetryInterceptor(this))
                 //增加下载进度拦截器
                 .addNetResponseInterceptor(new Interceptor() {
                     @Override
@@ -86,15 +94,80 @@ public class BJNetRequestManager {
                         }
                     }
                 })
+                // 预加载请求的缓存有效期
+                .addNetResponseInterceptor(BJPrefetcher.freshnessInterceptor())
                 .build();
 
         mResourceManager = new BJNetResourceManager();
     }
 
+    /**
+     * 设置全局重试策略, 默认不重试. 单次请求可以通过 {@link BJNetCall#setRetryPolicy} 覆盖.
+     * @param retryPolicy {@link BJRetryPolicy}, null 表示不重试
+     */
+    public void setRetryPolicy(BJRetryPolicy retryPolicy) {
+        mRetryPolicy = retryPolicy;
+    }
+
+    public BJRetryPolicy getRetryPolicy() {
+        return mRetryPolicy;
+    }
+
+    /**
+     * 开启 GET 请求的对冲, 降低长尾延迟. 默认不开启. 只对 {@link #newGetCall} 生效, 不包括下载.
+     * @param hedgePolicy {@link BJHedgePolicy}, null 表示关闭
+     */
+    public void setHedgePolicy(BJHedgePolicy hedgePolicy) {
+        mHedgePolicy = hedgePolicy;
+    }
+
+    public BJHedgePolicy getHedgePolicy() {
+        return mHedgePolicy;
+    }
+
+    /**
+     * 创建请求合并器, 把短时间内的多个请求合并为一个 multipart/mixed 请求发送到批量接口, 见 {@link BJBatcher}
+     * @param batchUrl 批量接口地址
+     */
+    public BJBatcher newBatcher(String batchUrl) {
+        if (TextUtils.isEmpty(batchUrl)) {
+            throw new IllegalArgumentException("batchUrl is empty!!");
+        }
+        return new BJBatcher(this, batchUrl);
+    }
+
     public void cancelCalls(Object tag) {
         mResourceManager.removeAll(tag);
     }
 
+    /**
+     * 后台预加载, 结果写入 HTTP 缓存. 之后使用同样 cacheTime 的 GET 请求直接从缓存返回.
+     * 预加载在低优先级线程中执行, 缓存有效时跳过, 有前台请求时等待.
+     *
+     * @param urls 请求地址
+     * @param cacheTime 缓存时间, 单位秒. 服务端没有返回缓存有效期时使用该时间
+     */
+    public void prefetch(List<String> urls, int cacheTime) {
+        if (urls == null || urls.isEmpty()) return;
+        synchronized (this) {
+            if (mPrefetcher == null) {
+                mPrefetcher = new BJPrefetcher(this, BJPrefetcher.DEFAULT_CONCURRENCY);
+            }
+        }
+        mPrefetcher.prefetch(urls, cacheTime);
+    }
+
+    /**
+     * 取消还未开始的预加载
+     */
+    public void cancelPrefetch() {
+        synchronized (this) {
+            if (mPrefetcher != null) {
+                mPrefetcher.cancelAll();
+            }
+        }
+    }
+
     /**
      * GET 请求接口
      *
@@ -136,10 +209,25 @@ public class BJNetRequestManager {
      * @return {@link BJNetCall}
      */
     public BJNetCall newGetCall(String url, Map<String, String> headers, int cacheTime) {
-        Request request = buildRequest(HttpMethod.GET, null, url, cacheTime, headers);
+        return newGetCall(url, headers, cacheTime, BJCachePolicy.DEFAULT);
+    }
+
+    /**
+     * GET 请求接口
+     *
+     * @param url 请求地址
+     * @param headers 自定义请求头
+     * @param cacheTime 请求缓存时间, 单位秒. 超过该时间的缓存视为过期
+     * @param cachePolicy 缓存策略 {@link BJCachePolicy}. 响应来源见 {@link BJResponse#getResponseSource()}
+     * @return {@link BJNetCall}
+     */
+    public BJNetCall newGetCall(String url, Map<String, String> headers, int cacheTime, BJCachePolicy cachePolicy) {
+        Request request = buildRequest(HttpMethod.GET, null, url, cacheTime, headers, cachePolicy);
         Call call = mNetworkClient.newCall(request);
 
-        return new RealNetCall(mResourceManager, call, null, mProgressCallbacks);
+        RealNetCall netCall = new RealNetCall(mNetworkClient, mResourceManager, call, null, mProgressCallbacks);
+        netCall.mHedgePolicy = mHedgePolicy;
+        return netCall;
     }
 
     /**
@@ -164,7 +252,7 @@ public class BJNetRequestManager {
             buildRequest(HttpMethod.POST, requestBody == null ? null : requestBody.getRequestBody(), url, 0,
                 headers);
         Call call = mNetworkClient.newCall(request);
-        return new RealNetCall(mResourceManager, call,null, mProgressCallbacks);
+        return new RealNetCall(mNetworkClient, mResourceManager, call, null, mProgressCallbacks);
     }
 
     /**
@@ -183,7 +271,29 @@ public class BJNetRequestManager {
 
         Request request = buildRequest(HttpMethod.GET, null, url, 0, null);
         Call call = mNetworkClient.newCall(request);
-        return new RealNetCall(mResourceManager, call, target, mProgressCallbacks);
+        return new RealNetCall(mNetworkClient, mResourceManager, call, target, mProgressCallbacks);
+    }
+
+    /**
+     * @return 执行 request 的 {@link BJNetCall}, 不对冲. 用于 {@link BJBatcher} 单独发送请求
+     */
+    BJNetCall newCall(Request request) {
+        Call call = mNetworkClient.newCall(request);
+        return new RealNetCall(mNetworkClient, mResourceManager, call, null, mProgressCallbacks);
+    }
+
+    /**
+     * Server-Sent Events 订阅, 需要调用 {@link BJEventSource#connect()} 开始连接
+     *
+     * @param url 请求地址
+     * @param headers 自定义请求头
+     * @param listener 事件回调
+     * @return {@link BJEventSource}
+     */
+    public BJEventSource newEventSource(String url, Map<String, String> headers, BJEventSourceListener listener) {
+        if (TextUtils.isEmpty(url))
+            throw new IllegalArgumentException("url is empty!!");
+        return new BJEventSource(this, url, headers, listener);
     }
 
     /**
@@ -198,14 +308,38 @@ public class BJNetRequestManager {
      */
     protected Request buildRequest(HttpMethod method, RequestBody requestBody, String url, int cacheTimeSeconds,
         Map<String, String> headers) {
+        return buildRequest(method, requestBody, url, cacheTimeSeconds, headers, BJCachePolicy.DEFAULT);
+    }
+
+    /**
+     * 构建网络请求
+     *
+     * @param method
+     * @param requestBody
+     * @param url
+     * @param cacheTimeSeconds
+     * @param headers
+     * @param cachePolicy 缓存策略
+     * @return
+     */
+    protected Request buildRequest(HttpMethod method, RequestBody requestBody, String url, int cacheTimeSeconds,
+        Map<String, String> headers, BJCachePolicy cachePolicy) {
 
         if (TextUtils.isEmpty(url))
             throw new IllegalArgumentException("url is empty!!");
 
+        if (cachePolicy == null) {
+            cachePolicy = BJCachePolicy.DEFAULT;
+        }
+
         Request.Builder builder = new Request.Builder();
         builder.method(method.getMethod(), requestBody);
         builder.url(url);
-        if (cacheTimeSeconds > 0) {
+        if (cachePolicy == BJCachePolicy.NETWORK_ONLY) {
+            builder.cacheControl(CacheControl.FORCE_NETWORK);
+        } else if (cachePolicy == BJCachePolicy.CACHE_ONLY) {
+            builder.cacheControl(CacheControl.FORCE_CACHE);
+        } else if (cacheTimeSeconds > 0) {
             CacheControl cacheControl = new CacheControl.Builder()
                     .maxAge(cacheTimeSeconds, TimeUnit.SECONDS)
                     .build();
@@ -221,10 +355,14 @@ public class BJNetRequestManager {
             }
         }
 
-        // 增加一个 tag 对象, 用于和 callback 建立标识.
-        builder.tag(new Object());
+        // 增加一个 tag 对象, 用于和 callback 建立标识. 同时携带缓存策略等单次请求的配置.
+        BJRequestTag tag = new BJRequestTag(cacheTimeSeconds, cachePolicy);
+        builder.tag(tag);
 
-        return builder.build();
+        Request request = builder.build();
+        // 在调用线程中计算路径模板, 网络线程中记录延迟时不再分配内存
+        tag.getMetrics().setEndpoint(BJLatencyRecorder.pathTemplate(request.url().encodedPath()));
+        return request;
     }
 
     public BJNetworkClient getNetworkClient() {
@@ -239,25 +377,148 @@ public class BJNetRequestManager {
 
         private WeakReference<Call> mWeakCall;
         private Call mCall;
+        private BJNetworkClient mNetworkClient;
         private BJNetResourceManager mResourceManager;
+        private BJDispatcher mDispatcher;
         private File mDownloadFile;
         private Map<Object, BJProgressCallback> mProgressCallbacks;
-
-        private RealNetCall(BJNetResourceManager resourceManager, Call call, File downloadFile,
-                            Map<Object, BJProgressCallback> progressCallbacks) {
+        private BJHedgePolicy mHedgePolicy;
+        private volatile BJHedgedCall mHedgedCall;
+        private long mConnectTimeoutMillis;
+        private long mReadTimeoutMillis;
+        private long mWriteTimeoutMillis;
+        private long mDeadlineMillis;
+        private boolean mStreaming;
+        private volatile ScheduledFuture<?> mDeadlineTimer;
+
+        private RealNetCall(BJNetworkClient networkClient, BJNetResourceManager resourceManager, Call call,
+                            File downloadFile, Map<Object, BJProgressCallback> progressCallbacks) {
             // call 本身会被 OkHttpClient 中的队列缓存. 请求完成之后会被清除.
             // 在交付 OKHttpClient 执行之前, 对 call 强引用. 执行之后, 对 Call 弱引用
             mCall = call;
             mWeakCall = new WeakReference<>(call);
+            this.mNetworkClient = networkClient;
             this.mResourceManager = resourceManager;
+            this.mDispatcher = networkClient.getDispatcher();
             mDownloadFile = downloadFile;
             mProgressCallbacks = progressCallbacks;
         }
 
         @Override
         public void cancel() {
-            if (getCall() != null) {
-                getCall().cancel();
+            ScheduledFuture<?> deadlineTimer = mDeadlineTimer;
+            if (deadlineTimer != null) {
+                deadlineTimer.cancel(false);
+            }
+            BJHedgedCall hedgedCall = mHedgedCall;
+            if (hedgedCall != null) {
+                hedgedCall.cancel();
+                return;
+            }
+            cancel(getCall());
+        }
+
+        private void cancel(Call call) {
+            if (call == null) return;
+            // 先标记 tag, 请求失败回调中可以判断是否被取消. 同时唤醒正在等待重试的请求
+            Object tag = call.request().tag();
+            if (tag instanceof BJRequestTag) {
+                ((BJRequestTag) tag).cancel();
+            }
+            call.cancel();
+            // 还在 BJDispatcher 中排队的请求
+            mDispatcher.cancel(call);
+        }
+
+        @Override
+        public void setPriority(BJCallPriority priority) {
+            if (mCall == null) {
+                throw new IllegalStateException("Already executed.");
+            }
+            Object tag = mCall.request().tag();
+            if (tag instanceof BJRequestTag) {
+                ((BJRequestTag) tag).setPriority(priority);
+            }
+        }
+
+        @Override
+        public void setRetryPolicy(BJRetryPolicy retryPolicy) {
+            if (mCall == null) {
+                throw new IllegalStateException("Already executed.");
+            }
+            Object tag = mCall.request().tag();
+            if (tag instanceof BJRequestTag) {
+                ((BJRequestTag) tag).setRetryPolicy(retryPolicy);
+            }
+        }
+
+        @Override
+        public void setTimeout(long connectTimeout, long readTimeout, long writeTimeout, TimeUnit unit) {
+            if (mCall == null) {
+                throw new IllegalStateException("Already executed.");
+            }
+            mConnectTimeoutMillis = unit.toMillis(connectTimeout);
+            mReadTimeoutMillis = unit.toMillis(readTimeout);
+            mWriteTimeoutMillis = unit.toMillis(writeTimeout);
+        }
+
+        @Override
+        public void setStreaming(boolean streaming) {
+            if (mCall == null) {
+                throw new IllegalStateException("Already executed.");
+            }
+            mStreaming = streaming;
+        }
+
+        @Override
+        public void setDeadline(long timeout, TimeUnit unit) {
+            if (mCall == null) {
+                throw new IllegalStateException("Already executed.");
+            }
+            mDeadlineMillis = unit.toMillis(timeout);
+        }
+
+        /**
+         * 执行之前按单次请求的超时选择 OkHttpClient, 开始计算截止时间
+         */
+        private void prepare() {
+            Request request = mCall.request();
+            OkHttpClient client = mNetworkClient.getOkHttpClient(request.url(), mConnectTimeoutMillis,
+                    mReadTimeoutMillis, mWriteTimeoutMillis, !mStreaming);
+            if (client != mNetworkClient.getOkHttpClient()) {
+                mCall = client.newCall(request);
+                mWeakCall = new WeakReference<>(mCall);
+            }
+            if (request.tag() instanceof BJRequestTag) {
+                ((BJRequestTag) request.tag()).getMetrics().readTimeoutMillis = client.readTimeoutMillis();
+            }
+
+            if (mHedgePolicy != null && !mStreaming) {
+                mHedgedCall = new BJHedgedCall(mNetworkClient, client, mHedgePolicy, mCall);
+            }
+
+            if (mDeadlineMillis > 0 && request.tag() instanceof BJRequestTag) {
+                final BJRequestTag requestTag = (BJRequestTag) request.tag();
+                requestTag.setDeadlineNanos(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(mDeadlineMillis));
+                // 定时器强引用 call, 执行之后 mWeakCall 可能已被回收, 读取响应体时也能取消.
+                // 请求结束时取消定时器, 不再持有请求直到截止时间
+                final Call call = mCall;
+                final BJHedgedCall hedgedCall = mHedgedCall;
+                mDeadlineTimer = mNetworkClient.getScheduler().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (hedgedCall != null) {
+                            hedgedCall.cancel();
+                        } else {
+                            cancel(call);
+                        }
+                    }
+                }, mDeadlineMillis, TimeUnit.MILLISECONDS);
+                if (mHedgedCall != null) {
+                    mHedgedCall.setDeadlineTimer(mDeadlineTimer);
+                } else {
+                    requestTag.getMetrics().setDeadlineTimer(mDeadlineTimer);
+                }
             }
         }
 
@@ -266,10 +527,18 @@ public class BJNetRequestManager {
             if (mCall == null) {
                 throw new IllegalStateException("Already executed.");
             }
+            prepare();
             mResourceManager.addNetCall(tag, this);
+            Object requestTag = mCall.request().tag();
             try {
-                Response response = mCall.execute();
+                Response response = mHedgedCall != null ? mHedgedCall.execute(tag)
+                        : mDispatcher.execute(mCall, tag);
                 return new BJResponse(response);
+            } catch (IOException e) {
+                if (requestTag instanceof BJRequestTag) {
+                    throw ((BJRequestTag) requestTag).deadlineException(e);
+                }
+                throw e;
             } finally {
                 // 取消对 Call 的强引用
                 mCall = null;
@@ -293,9 +562,14 @@ public class BJNetRequestManager {
                 ((BJDownloadCallback)callback).mStorageFile = mDownloadFile;
             }
 
+            prepare();
             mResourceManager.addNetCall(tag, this);
             try {
-                mCall.enqueue(callback);
+                if (mHedgedCall != null) {
+                    mHedgedCall.enqueue(tag, callback);
+                } else {
+                    mDispatcher.enqueue(mCall, tag, callback);
+                }
             } finally {
                 mCall = null;
             }
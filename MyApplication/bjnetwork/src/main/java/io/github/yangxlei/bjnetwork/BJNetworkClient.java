@@ -1,5 +1,7 @@
 package io.github.yangxlei.bjnetwork;
 
+import android.text.TextUtils;
+
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -10,14 +12,20 @@ import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 import io.github.yangxlei.bjnetwork.dns.BJDns;
 import io.github.yangxlei.cache.disk.DiskCache;
 import okhttp3.Cache;
 import okhttp3.Call;
+import okhttp3.ConnectionPool;
 import okhttp3.Cookie;
 import okhttp3.CookieJar;
+import okhttp3.Dispatcher;
 import okhttp3.Dns;
 import okhttp3.HttpUrl;
 import okhttp3.Interceptor;
@@ -31,51 +39,131 @@ import okhttp3.internal.Util;
  */
 public class BJNetworkClient {
 
+    public static final long DEFAULT_CACHE_SIZE = 1024 * 1024 * 100; // 100 MB
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 5;
+    public static final long DEFAULT_KEEP_ALIVE_DURATION_SECONDS = 5 * 60;
+    public static final int DEFAULT_TIMEOUT_SECONDS = 10;
+
     private OkHttpClient mOkHttpClient;
     private DiskCache mCookieCache;
     private File cacheDir;
+    private long cacheSize;
     private boolean enableHttp2x;
     private boolean enableLog;
+    private HttpLoggingInterceptor.Level logLevel;
+    private HttpLoggingInterceptor mLoggingInterceptor;
+    private BJLogSink mLogSink;
+    private BJCircuitBreaker mCircuitBreaker;
     private int readTimeout;
     private int writeTimeout;
     private int connectTimeout;
     private BJDns dns;
     private List<Interceptor> mInterceptors;
     private List<Interceptor> mNetResponseInterceptors;
+    private BJCacheKeyNormalizer mCacheKeyNormalizer;
+    private boolean cacheKeyCompareMode;
+    private BJCacheKeyInterceptor mCacheKeyInterceptor;
+    private int maxRequests;
+    private int maxRequestsPerHost;
+    private BJDispatcher mDispatcher;
+    private ConnectionPool mConnectionPool;
+    private BJPreconnector mPreconnector;
+    private int maxIdleConnections;
+    private long keepAliveDurationSeconds;
+    private BJCallMetricsListener mMetricsListener;
+    private BJLatencyRecorder mLatencyRecorder;
+    private BJAdaptiveTimeout mAdaptiveTimeout;
+    private BJRetryBudget mRetryBudget;
+    // 单次请求的超时 -> 派生的 OkHttpClient
+    private final ConcurrentHashMap<String, OkHttpClient> mTimeoutClients = new ConcurrentHashMap<>();
+    private ScheduledExecutorService mScheduler;
 
     public BJNetworkClient(Builder builder) {
 
         this.cacheDir = builder.cacheDir;
+        this.cacheSize = builder.cacheSize;
         this.enableHttp2x = builder.enableHttp2x;
         this.enableLog = builder.enableLog;
+        this.logLevel = builder.logLevel;
+        this.mLoggingInterceptor = builder.mLoggingInterceptor;
+        this.mLogSink = builder.mLogSink;
+        this.mCircuitBreaker = builder.mCircuitBreaker;
         this.readTimeout = builder.readTimeout;
         this.writeTimeout = builder.writeTimeout;
         this.connectTimeout = builder.connectTimeout;
+        this.mAdaptiveTimeout = builder.mAdaptiveTimeout;
         this.dns = builder.mDns;
         this.mInterceptors = builder.mInterceptors;
         this.mNetResponseInterceptors = builder.mNetResponseInterceptors;
+        this.mCacheKeyNormalizer = builder.mCacheKeyNormalizer;
+        this.cacheKeyCompareMode = builder.cacheKeyCompareMode;
+        this.maxRequests = builder.maxRequests;
+        this.maxRequestsPerHost = builder.maxRequestsPerHost;
+        this.mMetricsListener = builder.mMetricsListener;
+        // 通过 newBuilder() 创建的 client 共享同一个统计
+        if (builder.mLatencyRecorder == null) {
+            builder.mLatencyRecorder = new BJLatencyRecorder();
+        }
+        this.mLatencyRecorder = builder.mLatencyRecorder;
+        // 每个 client 一份重试预算, 通过 newBuilder() 创建的 client 共享
+        if (builder.mRetryBudget == null) {
+            builder.mRetryBudget = new BJRetryBudget(0.1, 10, 100);
+        }
+        this.mRetryBudget = builder.mRetryBudget;
 
         OkHttpClient.Builder httpBuilder = new OkHttpClient.Builder();
 
-        buildCache(httpBuilder, builder.cacheDir);
+        // 耗时统计, 需要在所有拦截器之前
+        BJMetricsCollector metricsCollector = new BJMetricsCollector(builder.mMetricsListener, mLatencyRecorder);
+        httpBuilder.addInterceptor(metricsCollector.interceptor());
+        httpBuilder.socketFactory(metricsCollector.socketFactory());
+
+        // 连接池, 通过 newBuilder() 创建的 client 共享同一个连接池
+        buildConnectionPool(httpBuilder, builder);
+
+        // 调度
+        buildDispatcher(httpBuilder, builder.maxRequests, builder.maxRequestsPerHost);
+
+        buildCache(httpBuilder, builder.cacheDir, builder.cacheSize);
 
         // 协议
         buildProtocol(httpBuilder, builder.enableHttp2x);
 
         // 日志
-        buildLog(httpBuilder, builder.enableLog);
+        buildLog(httpBuilder, builder.enableLog, builder.logLevel, builder.mLoggingInterceptor, builder.mLogSink);
 
         // 超时
-        httpBuilder.readTimeout(Math.max(10, builder.readTimeout), TimeUnit.SECONDS);
-        httpBuilder.writeTimeout(Math.max(10, builder.writeTimeout), TimeUnit.SECONDS);
-        httpBuilder.connectTimeout(Math.max(10, builder.connectTimeout), TimeUnit.SECONDS);
+        httpBuilder.readTimeout(timeoutOrDefault(builder.readTimeout), TimeUnit.SECONDS);
+        httpBuilder.writeTimeout(timeoutOrDefault(builder.writeTimeout), TimeUnit.SECONDS);
+        httpBuilder.connectTimeout(timeoutOrDefault(builder.connectTimeout), TimeUnit.SECONDS);
 
         // dns
-        buildDns(httpBuilder, builder.mDns);
+        buildDns(httpBuilder, builder.mDns, metricsCollector);
 
         // interceptors
+        // 缓存 key 归一化. 网络拦截器需要先于其它网络拦截器还原 url
+        if (builder.mCacheKeyNormalizer != null) {
+            mCacheKeyInterceptor = new BJCacheKeyInterceptor(builder.mCacheKeyNormalizer, builder.cacheKeyCompareMode);
+            httpBuilder.addNetworkInterceptor(mCacheKeyInterceptor.restoreInterceptor());
+        }
+
         buildInterceptors(httpBuilder, builder.mInterceptors, builder.mNetResponseInterceptors);
 
+        if (mCacheKeyInterceptor != null) {
+            httpBuilder.addInterceptor(mCacheKeyInterceptor.normalizeInterceptor());
+        }
+
+        // 缓存策略 (stale-if-error, stale-while-revalidate)
+        httpBuilder.addInterceptor(new BJCacheInterceptor(this));
+
+        // 熔断, 在缓存策略之内. 熔断时 stale-if-error 仍然可以返回缓存
+        if (mCircuitBreaker != null) {
+            httpBuilder.addInterceptor(new BJCircuitBreakerInterceptor(mCircuitBreaker));
+        }
+
+        // 耗时统计, 需要在所有网络拦截器之后
+        httpBuilder.addNetworkInterceptor(metricsCollector.networkInterceptor());
+
         mOkHttpClient = httpBuilder.build();
     }
 
@@ -88,11 +176,151 @@ public class BJNetworkClient {
         return mOkHttpClient;
     }
 
-    private void buildCache(OkHttpClient.Builder builder, File cacheDir) {
+    /**
+     * 使用指定超时的 OkHttpClient, 与当前 client 共享连接池, 缓存, 调度和拦截器. 相同的超时复用同一个实例.
+     * @param connectTimeoutMillis <= 0 时使用 client 的设置
+     * @param readTimeoutMillis <= 0 时使用 client 的设置
+     * @param writeTimeoutMillis <= 0 时使用 client 的设置
+     */
+    public OkHttpClient getOkHttpClient(long connectTimeoutMillis, long readTimeoutMillis, long writeTimeoutMillis) {
+        int connect = connectTimeoutMillis > 0 ? (int) connectTimeoutMillis : mOkHttpClient.connectTimeoutMillis();
+        int read = readTimeoutMillis > 0 ? (int) readTimeoutMillis : mOkHttpClient.readTimeoutMillis();
+        int write = writeTimeoutMillis > 0 ? (int) writeTimeoutMillis : mOkHttpClient.writeTimeoutMillis();
+        if (connect == mOkHttpClient.connectTimeoutMillis() && read == mOkHttpClient.readTimeoutMillis()
+                && write == mOkHttpClient.writeTimeoutMillis()) {
+            return mOkHttpClient;
+        }
+
+        String key = connect + "/" + read + "/" + write;
+        OkHttpClient client = mTimeoutClients.get(key);
+        if (client == null) {
+            client = mOkHttpClient.newBuilder()
+                    .connectTimeout(connect, TimeUnit.MILLISECONDS)
+                    .readTimeout(read, TimeUnit.MILLISECONDS)
+                    .writeTimeout(write, TimeUnit.MILLISECONDS)
+                    .build();
+            OkHttpClient previous = mTimeoutClients.putIfAbsent(key, client);
+            if (previous != null) client = previous;
+        }
+        return client;
+    }
+
+    /**
+     * 请求实际使用的 OkHttpClient. 没有设置单次请求的超时时, 按 {@link BJAdaptiveTimeout} 调整读超时
+     * @param adaptive 是否使用自适应读超时, 流式请求不使用
+     */
+    OkHttpClient getOkHttpClient(HttpUrl url, long connectTimeoutMillis, long readTimeoutMillis,
+                                 long writeTimeoutMillis, boolean adaptive) {
+        if (adaptive && mAdaptiveTimeout != null && connectTimeoutMillis <= 0 && readTimeoutMillis <= 0
+                && writeTimeoutMillis <= 0) {
+            readTimeoutMillis = mAdaptiveTimeout.readTimeoutMillis(mLatencyRecorder, url.host(),
+                    mOkHttpClient.readTimeoutMillis());
+        }
+        return getOkHttpClient(connectTimeoutMillis, readTimeoutMillis, writeTimeoutMillis);
+    }
+
+    /**
+     * 对冲, 截止时间等定时任务
+     */
+    synchronized ScheduledExecutorService getScheduler() {
+        if (mScheduler == null) {
+            ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "BJNetwork Scheduler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            try {
+                // 取消的任务立即移出队列, 不再引用请求. API 21 以下没有该方法
+                scheduler.setRemoveOnCancelPolicy(true);
+            } catch (NoSuchMethodError ignore) {
+            }
+            mScheduler = scheduler;
+        }
+        return mScheduler;
+    }
+
+    private static int timeoutOrDefault(int timeoutSeconds) {
+        return timeoutSeconds > 0 ? timeoutSeconds : DEFAULT_TIMEOUT_SECONDS;
+    }
+
+    /**
+     * 连接预热. 提前建立到 host 的连接并放入连接池, 连接在连接池的空闲时间内有效.
+     * @param host 地址, 例如 https://api.example.com. 没有 scheme 时使用 https
+     * @param count 连接数, 不超过连接池的最大空闲连接数. HTTP/2 只需要 1 个连接
+     */
+    public void preconnect(String host, int count) {
+        if (TextUtils.isEmpty(host)) {
+            throw new IllegalArgumentException("host is empty!!");
+        }
+        HttpUrl url = HttpUrl.parse(host.contains("://") ? host : "https://" + host);
+        if (url == null) {
+            throw new IllegalArgumentException("unexpected host: " + host);
+        }
+        mPreconnector.preconnect(mOkHttpClient, url, count);
+    }
+
+    /**
+     * @return 预热建立的连接数
+     */
+    public long getPreconnectCount() {
+        return mPreconnector.getPreconnectCount();
+    }
+
+    /**
+     * @return 复用了预热连接的请求数
+     */
+    public long getPreconnectReusedCallCount() {
+        return mPreconnector.getReusedCallCount();
+    }
+
+    /**
+     * @return 按 host 和接口聚合的延迟分布
+     */
+    public BJLatencyRecorder getLatencyRecorder() {
+        return mLatencyRecorder;
+    }
+
+    /**
+     * @return 重试预算, {@link BJRetryPolicy} 没有设置预算时使用
+     */
+    public BJRetryBudget getRetryBudget() {
+        return mRetryBudget;
+    }
+
+    /**
+     * @return 按优先级调度请求的 {@link BJDispatcher}
+     */
+    public BJDispatcher getDispatcher() {
+        return mDispatcher;
+    }
+
+    /**
+     * 缓存使用的 url. 内存缓存等其它缓存层应该使用同样的 key.
+     * @param url 请求地址
+     * @return 归一化后的 url. 未设置 {@link BJCacheKeyNormalizer} 或者对比模式下返回原始 url
+     */
+    public HttpUrl getCacheUrl(HttpUrl url) {
+        if (mCacheKeyInterceptor == null || cacheKeyCompareMode) {
+            return url;
+        }
+        return mCacheKeyInterceptor.normalize(url);
+    }
+
+    /**
+     * @return 缓存 key 命中率对比. 只有开启对比模式时不为 null
+     */
+    public BJCacheKeyStats getCacheKeyStats() {
+        return mCacheKeyInterceptor == null ? null : mCacheKeyInterceptor.getStats();
+    }
+
+    private void buildCache(OkHttpClient.Builder builder, File cacheDir, long cacheSize) {
         if (cacheDir == null) return;
 
         // cache
-        Cache cache = new Cache(cacheDir, 1024 * 1024 * 100); // 100 MB
+        Cache cache = new Cache(cacheDir, cacheSize);
         builder.cache(cache);
 
 
@@ -166,6 +394,30 @@ public class BJNetworkClient {
         });
     }
 
+    private void buildConnectionPool(OkHttpClient.Builder httpBuilder, Builder builder) {
+        if (builder.mConnectionPool == null) {
+            builder.mConnectionPool = new ConnectionPool(builder.maxIdleConnections, builder.keepAliveDurationSeconds, TimeUnit.SECONDS);
+            builder.mPreconnector = new BJPreconnector(builder.maxIdleConnections);
+        }
+        mConnectionPool = builder.mConnectionPool;
+        mPreconnector = builder.mPreconnector;
+        this.maxIdleConnections = builder.maxIdleConnections;
+        this.keepAliveDurationSeconds = builder.keepAliveDurationSeconds;
+
+        httpBuilder.connectionPool(mConnectionPool);
+        httpBuilder.addNetworkInterceptor(mPreconnector.interceptor());
+    }
+
+    private void buildDispatcher(OkHttpClient.Builder builder, int maxRequests, int maxRequestsPerHost) {
+        mDispatcher = new BJDispatcher(maxRequests, maxRequestsPerHost);
+
+        // 排队由 BJDispatcher 负责, OkHttp 的限制保持一致
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxRequests);
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+        builder.dispatcher(dispatcher);
+    }
+
     private void buildProtocol(OkHttpClient.Builder builder, boolean enableHttp2x) {
         if (enableHttp2x) {
             builder.protocols(Util.immutableList(Protocol.HTTP_2, Protocol.SPDY_3, Protocol.HTTP_1_1));
@@ -174,18 +426,21 @@ public class BJNetworkClient {
         }
     }
 
-    private void buildLog(OkHttpClient.Builder builder, boolean enableLog) {
+    private void buildLog(OkHttpClient.Builder builder, boolean enableLog, HttpLoggingInterceptor.Level level,
+                          HttpLoggingInterceptor loggingInterceptor, BJLogSink logSink) {
         if (enableLog) {
-            HttpLoggingInterceptor log = new HttpLoggingInterceptor();
-            log.setLevel(HttpLoggingInterceptor.Level.BODY);
+            HttpLoggingInterceptor log = loggingInterceptor;
+            if (log == null) {
+                log = logSink == null ? new HttpLoggingInterceptor()
+                        : new HttpLoggingInterceptor(logSink.httpLogger("OkHttp"));
+                log.setLevel(level);
+            }
             builder.addInterceptor(log);
         }
     }
 
-    private void buildDns(OkHttpClient.Builder build, Dns dns) {
-        if (dns != null) {
-            build.dns(dns);
-        }
+    private void buildDns(OkHttpClient.Builder build, Dns dns, BJMetricsCollector metricsCollector) {
+        build.dns(metricsCollector.dns(dns != null ? dns : Dns.SYSTEM));
     }
 
     private void buildInterceptors(OkHttpClient.Builder builder, List<Interceptor> interceptors,  List<Interceptor> networkInterceptors) {
@@ -202,6 +457,20 @@ public class BJNetworkClient {
         }
     }
 
+    /**
+     * @return 熔断器, 未设置时返回 null
+     */
+    public BJCircuitBreaker getCircuitBreaker() {
+        return mCircuitBreaker;
+    }
+
+    /**
+     * @return 异步日志输出, 未设置时返回 null
+     */
+    public BJLogSink getLogSink() {
+        return mLogSink;
+    }
+
     public Builder newBuilder() {
         return new Builder(this);
     }
@@ -209,15 +478,32 @@ public class BJNetworkClient {
 
     public static class Builder {
         private boolean enableLog = false;
+        private HttpLoggingInterceptor.Level logLevel = HttpLoggingInterceptor.Level.BODY;
+        private HttpLoggingInterceptor mLoggingInterceptor;
+        private BJLogSink mLogSink;
+        private BJCircuitBreaker mCircuitBreaker;
         private File cacheDir = null;
+        private long cacheSize = DEFAULT_CACHE_SIZE;
         private boolean enableHttp2x = false;
         private BJDns mDns= null;
         private int readTimeout;
         private int writeTimeout;
         private int connectTimeout;
+        private BJAdaptiveTimeout mAdaptiveTimeout;
 
         private List<Interceptor> mInterceptors;
         private List<Interceptor> mNetResponseInterceptors;
+        private BJCacheKeyNormalizer mCacheKeyNormalizer;
+        private boolean cacheKeyCompareMode;
+        private int maxRequests = BJDispatcher.DEFAULT_MAX_REQUESTS;
+        private int maxRequestsPerHost = BJDispatcher.DEFAULT_MAX_REQUESTS_PER_HOST;
+        private int maxIdleConnections = DEFAULT_MAX_IDLE_CONNECTIONS;
+        private long keepAliveDurationSeconds = DEFAULT_KEEP_ALIVE_DURATION_SECONDS;
+        private ConnectionPool mConnectionPool;
+        private BJPreconnector mPreconnector;
+        private BJCallMetricsListener mMetricsListener;
+        private BJLatencyRecorder mLatencyRecorder;
+        private BJRetryBudget mRetryBudget;
 
         public Builder() {
         }
@@ -225,13 +511,30 @@ public class BJNetworkClient {
         public Builder(BJNetworkClient client) {
             this.enableHttp2x = client.enableHttp2x;
             this.enableLog = client.enableLog;
+            this.logLevel = client.logLevel;
+            this.mLoggingInterceptor = client.mLoggingInterceptor;
+            this.mLogSink = client.mLogSink;
+            this.mCircuitBreaker = client.mCircuitBreaker;
             this.cacheDir = client.cacheDir;
+            this.cacheSize = client.cacheSize;
             this.mDns = client.dns;
             this.readTimeout = client.readTimeout;
             this.writeTimeout = client.writeTimeout;
             this.connectTimeout = client.connectTimeout;
+            this.mAdaptiveTimeout = client.mAdaptiveTimeout;
             this.mInterceptors = client.mInterceptors;
             this.mNetResponseInterceptors = client.mNetResponseInterceptors;
+            this.mCacheKeyNormalizer = client.mCacheKeyNormalizer;
+            this.cacheKeyCompareMode = client.cacheKeyCompareMode;
+            this.maxRequests = client.maxRequests;
+            this.maxRequestsPerHost = client.maxRequestsPerHost;
+            this.maxIdleConnections = client.maxIdleConnections;
+            this.keepAliveDurationSeconds = client.keepAliveDurationSeconds;
+            this.mConnectionPool = client.mConnectionPool;
+            this.mPreconnector = client.mPreconnector;
+            this.mMetricsListener = client.mMetricsListener;
+            this.mLatencyRecorder = client.mLatencyRecorder;
+            this.mRetryBudget = client.mRetryBudget;
         }
 
         /**
@@ -244,6 +547,48 @@ public class BJNetworkClient {
             return this;
         }
 
+        /**
+         * 日志级别, 开启日志时有效
+         * @param logLevel default BODY
+         * @return Builder
+         */
+        public Builder setLogLevel(HttpLoggingInterceptor.Level logLevel) {
+            checkNotNull(logLevel);
+            this.logLevel = logLevel;
+            return this;
+        }
+
+        /**
+         * 自定义日志拦截器 (采样, 最大记录字节数, 流式记录等), 开启日志时有效. 设置后忽略 {@link #setLogLevel}
+         * @param loggingInterceptor
+         * @return Builder
+         */
+        public Builder setLoggingInterceptor(HttpLoggingInterceptor loggingInterceptor) {
+            this.mLoggingInterceptor = loggingInterceptor;
+            return this;
+        }
+
+        /**
+         * 日志改为异步批量输出, 网络线程只把日志放入缓冲区. 同时供 WebSocket 等组件共用.
+         * 设置了 {@link #setLoggingInterceptor} 时, 需自行用 {@link BJLogSink#httpLogger(String)} 创建拦截器.
+         * @param logSink
+         * @return Builder
+         */
+        public Builder setLogSink(BJLogSink logSink) {
+            this.mLogSink = logSink;
+            return this;
+        }
+
+        /**
+         * 按 host 熔断, 后端故障时请求直接失败, 不再等待超时. 默认不启用
+         * @param circuitBreaker {@link BJCircuitBreaker}
+         * @return Builder
+         */
+        public Builder setCircuitBreaker(BJCircuitBreaker circuitBreaker) {
+            this.mCircuitBreaker = circuitBreaker;
+            return this;
+        }
+
         /**
          * 缓存路径 (cache, cookie)
          * @param cacheDir
@@ -254,6 +599,40 @@ public class BJNetworkClient {
             return this;
         }
 
+        /**
+         * HTTP 缓存大小
+         * @param cacheSize 单位 byte, default 100 MB
+         * @return Builder
+         */
+        public Builder setCacheSize(long cacheSize) {
+            if (cacheSize <= 0) {
+                throw new IllegalArgumentException("cacheSize <= 0");
+            }
+            this.cacheSize = cacheSize;
+            return this;
+        }
+
+        /**
+         * 设置缓存 key 归一化, 例如 {@link BJDefaultCacheKeyNormalizer}
+         * @param normalizer
+         * @return Builder
+         */
+        public Builder setCacheKeyNormalizer(BJCacheKeyNormalizer normalizer) {
+            this.mCacheKeyNormalizer = normalizer;
+            return this;
+        }
+
+        /**
+         * 缓存 key 对比模式. 开启后不改写缓存 key, 只统计原始 url 和归一化 url 的命中率,
+         * 见 {@link BJNetworkClient#getCacheKeyStats()}
+         * @param compareMode default false
+         * @return Builder
+         */
+        public Builder setCacheKeyCompareMode(boolean compareMode) {
+            this.cacheKeyCompareMode = compareMode;
+            return this;
+        }
+
         /**
          * 是否需要支持 http2(SPDY) 协议
          * @param enableHttp2x default true
@@ -264,21 +643,86 @@ public class BJNetworkClient {
             return this;
         }
 
+        /**
+         * 最大并发请求数
+         * @param maxRequests default 64
+         * @return Builder
+         */
+        public Builder setMaxRequests(int maxRequests) {
+            if (maxRequests < 1) {
+                throw new IllegalArgumentException("maxRequests < 1");
+            }
+            this.maxRequests = maxRequests;
+            return this;
+        }
+
+        /**
+         * 每个 host 的最大并发请求数
+         * @param maxRequestsPerHost default 5
+         * @return Builder
+         */
+        public Builder setMaxRequestsPerHost(int maxRequestsPerHost) {
+            if (maxRequestsPerHost < 1) {
+                throw new IllegalArgumentException("maxRequestsPerHost < 1");
+            }
+            this.maxRequestsPerHost = maxRequestsPerHost;
+            return this;
+        }
+
+        /**
+         * 连接池配置. 预热的连接最多保留 keepAliveDuration
+         * @param maxIdleConnections 最大空闲连接数, default 5
+         * @param keepAliveDurationSeconds 空闲连接的保留时间, default 300s
+         * @return Builder
+         */
+        public Builder setConnectionPool(int maxIdleConnections, long keepAliveDurationSeconds) {
+            if (maxIdleConnections < 0 || keepAliveDurationSeconds <= 0) {
+                throw new IllegalArgumentException();
+            }
+            this.maxIdleConnections = maxIdleConnections;
+            this.keepAliveDurationSeconds = keepAliveDurationSeconds;
+            this.mConnectionPool = null;
+            this.mPreconnector = null;
+            return this;
+        }
+
+        /**
+         * @param readTimeout 单位秒, <= 0 时使用默认的 10s. 单次请求见 {@link BJNetCall#setTimeout}
+         * @return Builder
+         */
         public Builder setReadTimeoutAtSeconds(int readTimeout) {
             this.readTimeout = readTimeout;
             return this;
         }
 
+        /**
+         * @param writeTimeout 单位秒, <= 0 时使用默认的 10s
+         * @return Builder
+         */
         public Builder setWriteTimeoutAtSeconds(int writeTimeout) {
             this.writeTimeout = writeTimeout;
             return this;
         }
 
+        /**
+         * @param connectTimeout 单位秒, <= 0 时使用默认的 10s
+         * @return Builder
+         */
         public Builder setConnectTimeoutAtSeconds(int connectTimeout) {
             this.connectTimeout = connectTimeout;
             return this;
         }
 
+        /**
+         * 按 host 观测到的延迟自动调整读超时. 默认不启用
+         * @param adaptiveTimeout {@link BJAdaptiveTimeout}
+         * @return Builder
+         */
+        public Builder setAdaptiveTimeout(BJAdaptiveTimeout adaptiveTimeout) {
+            this.mAdaptiveTimeout = adaptiveTimeout;
+            return this;
+        }
+
         /**
          * 设置 DNS 实现接口.默认使用 SYSTEM.
          * @param dns
@@ -290,6 +734,27 @@ public class BJNetworkClient {
             return this;
         }
 
+        /**
+         * 设置请求耗时统计的全局监听
+         * @param listener {@link BJCallMetricsListener}
+         * @return Builder
+         */
+        public Builder setMetricsListener(BJCallMetricsListener listener) {
+            this.mMetricsListener = listener;
+            return this;
+        }
+
+        /**
+         * 设置重试预算, {@link BJRetryPolicy} 没有设置预算时使用.
+         * 默认每个 client 单独一份, 重试不超过请求量的 10%
+         * @param retryBudget {@link BJRetryBudget}
+         * @return Builder
+         */
+        public Builder setRetryBudget(BJRetryBudget retryBudget) {
+            this.mRetryBudget = retryBudget;
+            return this;
+        }
+
         /**
          * 添加请求拦截器
          * @param interceptor
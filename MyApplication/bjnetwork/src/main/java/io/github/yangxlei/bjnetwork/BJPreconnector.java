@@ -0,0 +1,102 @@
+package io.github.yangxlei.bjnetwork;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Connection;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.internal.Util;
+
+/**
+ * 连接预热. 提前完成 DNS, TCP, TLS 建连, 把连接放入连接池中, 直到超过连接池的空闲时间被回收.
+ * OkHttp 没有单独建连的接口, 这里通过 HEAD 请求建立连接.
+ */
+class BJPreconnector {
+
+    private final int maxIdleConnections;
+
+    // 预热建立的连接, 连接被回收后自动移除
+    private final Set<Connection> mPreconnectedConnections =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<Connection, Boolean>()));
+
+    private final AtomicLong mPreconnectCount = new AtomicLong();
+    private final AtomicLong mReusedCallCount = new AtomicLong();
+
+    BJPreconnector(int maxIdleConnections) {
+        this.maxIdleConnections = maxIdleConnections;
+    }
+
+    void preconnect(OkHttpClient client, HttpUrl url, int count) {
+        // 超过空闲连接数的连接会被连接池立即回收
+        count = Math.min(count, maxIdleConnections);
+        if (count <= 0) return;
+
+        OkHttpClient preconnectClient = client.newBuilder()
+                .followRedirects(false)
+                .followSslRedirects(false)
+                .build();
+
+        HttpUrl rootUrl = url.newBuilder().encodedPath("/").query(null).fragment(null).build();
+        // 同时发起 count 个请求, HTTP/1.1 下每个请求使用一个新连接. HTTP/2 下会复用同一个连接.
+        for (int i = 0; i < count; i++) {
+            Request request = new Request.Builder()
+                    .url(rootUrl)
+                    .head()
+                    .tag(new PreconnectTag())
+                    .build();
+            preconnectClient.newCall(request).enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) throws IOException {
+                    Util.closeQuietly(response.body());
+                }
+            });
+        }
+    }
+
+    /**
+     * 网络拦截器, 记录预热的连接以及复用预热连接的请求数.
+     */
+    Interceptor interceptor() {
+        return new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                Request request = chain.request();
+                Connection connection = chain.connection();
+                if (connection != null) {
+                    if (request.tag() instanceof PreconnectTag) {
+                        if (mPreconnectedConnections.add(connection)) {
+                            mPreconnectCount.incrementAndGet();
+                        }
+                    } else if (mPreconnectedConnections.contains(connection)) {
+                        mReusedCallCount.incrementAndGet();
+                    }
+                }
+                return chain.proceed(request);
+            }
+        };
+    }
+
+    long getPreconnectCount() {
+        return mPreconnectCount.get();
+    }
+
+    long getReusedCallCount() {
+        return mReusedCallCount.get();
+    }
+
+    private static class PreconnectTag {
+    }
+}
@@ -0,0 +1,147 @@
+package io.github.yangxlei.bjnetwork;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.CacheControl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.internal.Util;
+import okio.Buffer;
+import okio.BufferedSource;
+
+/**
+ * 后台预加载, 把请求结果写入 HTTP 缓存.
+ * <ul>
+ * <li>使用低优先级线程, 并发数有限, 在 {@link BJDispatcher} 中以 {@link BJCallPriority#LOW} 排队</li>
+ * <li>缓存有效时跳过</li>
+ * <li>有前台请求在 {@link BJDispatcher} 中排队或执行时等待</li>
+ * </ul>
+ */
+class BJPrefetcher {
+
+    static final int DEFAULT_CONCURRENCY = 2;
+
+    private final BJNetRequestManager mRequestManager;
+    private final ThreadPoolExecutor mExecutor;
+
+    BJPrefetcher(BJNetRequestManager requestManager, int concurrency) {
+        this.mRequestManager = requestManager;
+        this.mExecutor = new ThreadPoolExecutor(concurrency, concurrency, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "BJPrefetch-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        this.mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    void prefetch(List<String> urls, final int cacheTimeSeconds) {
+        for (final String url : urls) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        prefetch(url, cacheTimeSeconds);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        }
+    }
+
+    void cancelAll() {
+        mExecutor.getQueue().clear();
+    }
+
+    private void prefetch(String url, int cacheTimeSeconds) throws IOException, InterruptedException {
+        if (isFresh(url, cacheTimeSeconds)) return;
+
+        mRequestManager.getNetworkClient().getDispatcher().awaitForegroundIdle();
+
+        Request request = buildPrefetchRequest(url, cacheTimeSeconds);
+        Response response = null;
+        try {
+            response = mRequestManager.getNetworkClient().getDispatcher().execute(
+                    mRequestManager.getNetworkClient().newCall(request), null);
+            // 读完响应体才会写入缓存
+            BufferedSource source = response.body().source();
+            Buffer buffer = new Buffer();
+            while (source.read(buffer, 8192) != -1) {
+                buffer.clear();
+            }
+        } finally {
+            if (response != null) {
+                Util.closeQuietly(response.body());
+            }
+        }
+    }
+
+    private boolean isFresh(String url, int cacheTimeSeconds) throws IOException {
+        CacheControl.Builder cacheControl = new CacheControl.Builder().onlyIfCached();
+        if (cacheTimeSeconds > 0) {
+            cacheControl.maxAge(cacheTimeSeconds, TimeUnit.SECONDS);
+        }
+        Request request = mRequestManager.buildRequest(BJNetRequestManager.HttpMethod.GET, null, url,
+                cacheTimeSeconds, null).newBuilder()
+                .cacheControl(cacheControl.build())
+                .build();
+        Response response = mRequestManager.getNetworkClient().newCall(request).execute();
+        Util.closeQuietly(response.body());
+        // only-if-cached 且缓存过期时返回 504
+        return response.cacheResponse() != null;
+    }
+
+    private Request buildPrefetchRequest(String url, int cacheTimeSeconds) {
+        Request request = mRequestManager.buildRequest(BJNetRequestManager.HttpMethod.GET, null, url,
+                cacheTimeSeconds, null);
+        BJRequestTag tag = (BJRequestTag) request.tag();
+        tag.setPrefetch(true);
+        tag.setPriority(BJCallPriority.LOW);
+        return request;
+    }
+
+    /**
+     * 预加载请求: 服务端没有返回缓存有效期时, 使用 cacheTime 作为缓存有效期,
+     * 保证之后同样 cacheTime 的请求可以直接命中缓存.
+     */
+    static Interceptor freshnessInterceptor() {
+        return new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                Request request = chain.request();
+                Response response = chain.proceed(request);
+                if (!(request.tag() instanceof BJRequestTag)) {
+                    return response;
+                }
+                BJRequestTag tag = (BJRequestTag) request.tag();
+                if (!tag.isPrefetch() || tag.getCacheTimeSeconds() <= 0 || response.code() != 200) {
+                    return response;
+                }
+
+                CacheControl cacheControl = response.cacheControl();
+                if (cacheControl.noStore() || cacheControl.noCache()
+                        || cacheControl.maxAgeSeconds() != -1 || cacheControl.sMaxAgeSeconds() != -1
+                        || response.header("Expires") != null) {
+                    return response;
+                }
+                return response.newBuilder()
+                        .header("Cache-Control", "max-age=" + tag.getCacheTimeSeconds())
+                        .build();
+            }
+        };
+    }
+}
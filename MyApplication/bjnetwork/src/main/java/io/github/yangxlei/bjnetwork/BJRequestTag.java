@@ -0,0 +1,148 @@
+package io.github.yangxlei.bjnetwork;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * 请求的 tag 对象. 用于和 callback 建立标识, 同时携带单次请求的配置.
+ * 不要重写 equals/hashCode, 每个请求的 tag 必须是唯一的.
+ */
+public class BJRequestTag {
+
+    private int cacheTimeSeconds;
+    private BJCachePolicy cachePolicy;
+    private boolean prefetch;
+    private BJCallPriority priority = BJCallPriority.NORMAL;
+    private volatile long queueWaitMillis;
+    private BJRetryPolicy retryPolicy;
+    private boolean canceled;
+    private volatile long deadlineNanos;
+    private final BJCallMetrics metrics = new BJCallMetrics();
+
+    public BJRequestTag(int cacheTimeSeconds, BJCachePolicy cachePolicy) {
+        this.cacheTimeSeconds = cacheTimeSeconds;
+        this.cachePolicy = cachePolicy == null ? BJCachePolicy.DEFAULT : cachePolicy;
+    }
+
+    public int getCacheTimeSeconds() {
+        return cacheTimeSeconds;
+    }
+
+    public BJCachePolicy getCachePolicy() {
+        return cachePolicy;
+    }
+
+    /**
+     * @return 是否是 {@link BJNetRequestManager#prefetch} 发起的预加载请求
+     */
+    public boolean isPrefetch() {
+        return prefetch;
+    }
+
+    void setPrefetch(boolean prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    public BJCallPriority getPriority() {
+        return priority;
+    }
+
+    void setPriority(BJCallPriority priority) {
+        this.priority = priority == null ? BJCallPriority.NORMAL : priority;
+    }
+
+    /**
+     * @return 在 {@link BJDispatcher} 中排队等待的时间, 单位毫秒
+     */
+    public long getQueueWaitMillis() {
+        return queueWaitMillis;
+    }
+
+    void setQueueWaitMillis(long queueWaitMillis) {
+        this.queueWaitMillis = queueWaitMillis;
+    }
+
+    /**
+     * @return 单次请求的重试策略, 未设置时为 null
+     */
+    public BJRetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    void setRetryPolicy(BJRetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public synchronized boolean isCanceled() {
+        return canceled;
+    }
+
+    synchronized void cancel() {
+        canceled = true;
+        notifyAll();
+    }
+
+    /**
+     * 等待重试, 期间请求被取消时立即返回
+     * @return 请求没有被取消
+     */
+    synchronized boolean awaitRetry(long millis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        long remaining = millis;
+        while (!canceled && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+        return !canceled;
+    }
+
+    /**
+     * @return 截止时间 ({@link System#nanoTime()}), 没有设置时为 0. 见 {@link BJNetCall#setDeadline}
+     */
+    long getDeadlineNanos() {
+        return deadlineNanos;
+    }
+
+    void setDeadlineNanos(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * @return 请求因为超过截止时间被取消
+     */
+    public boolean isDeadlineExceeded() {
+        return deadlineNanos != 0 && System.nanoTime() - deadlineNanos >= 0 && isCanceled();
+    }
+
+    /**
+     * 超过截止时间被取消的请求抛出 InterruptedIOException("deadline exceeded"), 而不是 "Canceled"
+     */
+    IOException deadlineException(IOException e) {
+        if (!isDeadlineExceeded() || e instanceof InterruptedIOException) {
+            return e;
+        }
+        InterruptedIOException exception = new InterruptedIOException("deadline exceeded");
+        exception.initCause(e);
+        return exception;
+    }
+
+    /**
+     * @return 对冲请求的 tag, 复制单次请求的配置
+     */
+    BJRequestTag newHedgeTag() {
+        BJRequestTag tag = new BJRequestTag(cacheTimeSeconds, cachePolicy);
+        tag.priority = priority;
+        tag.deadlineNanos = deadlineNanos;
+        tag.metrics.setEndpoint(metrics.getEndpoint());
+        tag.metrics.hedge = true;
+        tag.metrics.readTimeoutMillis = metrics.readTimeoutMillis;
+        return tag;
+    }
+
+    /**
+     * @return 请求的耗时统计
+     */
+    public BJCallMetrics getMetrics() {
+        return metrics;
+    }
+}
@@ -46,6 +46,45 @@ public class BJResponse {
         return mResponse.receivedResponseAtMillis();
     }
 
+    /**
+     * 响应的来源: 网络, 缓存, 校验后的缓存, 过期缓存.
+     * @return {@link BJResponseSource}
+     */
+    public BJResponseSource getResponseSource() {
+        Response cacheResponse = mResponse.cacheResponse();
+        Response networkResponse = mResponse.networkResponse();
+        if (cacheResponse == null) {
+            return networkResponse == null ? BJResponseSource.NONE : BJResponseSource.NETWORK;
+        }
+        if (networkResponse != null) {
+            // 条件请求: 304 使用缓存, 否则是新的网络响应
+            return networkResponse.code() == 304 ? BJResponseSource.CONDITIONAL_CACHE : BJResponseSource.NETWORK;
+        }
+        return BJCacheInterceptor.isStale(mResponse) ? BJResponseSource.STALE_CACHE : BJResponseSource.CACHE;
+    }
+
+    /**
+     * @return 请求在 {@link BJDispatcher} 中排队等待的时间, 单位毫秒
+     */
+    public long getQueueWaitMillis() {
+        Object tag = mResponse.request().tag();
+        if (tag instanceof BJRequestTag) {
+            return ((BJRequestTag) tag).getQueueWaitMillis();
+        }
+        return 0;
+    }
+
+    /**
+     * @return 请求的耗时统计. 读完响应体之后统计才完整
+     */
+    public BJCallMetrics getMetrics() {
+        Object tag = mResponse.request().tag();
+        if (tag instanceof BJRequestTag) {
+            return ((BJRequestTag) tag).getMetrics();
+        }
+        return null;
+    }
+
     public String getResponseString() throws IOException {
        return mResponse.body().string();
     }
@@ -0,0 +1,27 @@
+package io.github.yangxlei.bjnetwork;
+
+/**
+ * 响应的来源.
+ */
+public enum BJResponseSource {
+    /**
+     * 网络
+     */
+    NETWORK,
+    /**
+     * 有效期内的缓存
+     */
+    CACHE,
+    /**
+     * 缓存经过服务端校验 (304) 后返回
+     */
+    CONDITIONAL_CACHE,
+    /**
+     * 已过期的缓存 (STALE_IF_ERROR, STALE_WHILE_REVALIDATE, CACHE_ONLY)
+     */
+    STALE_CACHE,
+    /**
+     * 没有可用的响应, 例如 CACHE_ONLY 时缓存不存在
+     */
+    NONE
+}
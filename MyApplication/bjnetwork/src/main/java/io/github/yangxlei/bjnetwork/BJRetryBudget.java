@@ -0,0 +1,70 @@
+package io.github.yangxlei.bjnetwork;
+
+/**
+ * 重试预算, 把重试次数限制在请求量的一定比例内, 避免服务端故障时重试放大流量.
+ * 每个请求存入 ratio 个令牌, 每次重试消耗一个令牌. 令牌余额不超过 maxTokens, 初始有 minTokens 个令牌,
+ * 保证请求量很小时也可以重试. 默认每个 {@link BJNetworkClient} 一份, 见 {@link BJNetworkClient.Builder#setRetryBudget}.
+ */
+public class BJRetryBudget {
+
+    private final double ratio;
+    private final double maxTokens;
+    private double tokens;
+
+    private long requestCount;
+    private long retryCount;
+    private long rejectedCount;
+
+    /**
+     * @param ratio 重试占请求量的比例, 例如 0.1
+     * @param minTokens 初始令牌数
+     * @param maxTokens 最多累积的令牌数
+     */
+    public BJRetryBudget(double ratio, int minTokens, int maxTokens) {
+        if (ratio < 0 || minTokens < 0 || maxTokens < minTokens) {
+            throw new IllegalArgumentException("invalid retry budget");
+        }
+        this.ratio = ratio;
+        this.maxTokens = maxTokens;
+        this.tokens = minTokens;
+    }
+
+    synchronized void onRequest() {
+        requestCount++;
+        tokens = Math.min(maxTokens, tokens + ratio);
+    }
+
+    /**
+     * @return 预算足够时消耗一个令牌并返回 true
+     */
+    synchronized boolean tryAcquireRetry() {
+        if (tokens < 1) {
+            rejectedCount++;
+            return false;
+        }
+        tokens -= 1;
+        retryCount++;
+        return true;
+    }
+
+    public synchronized long getRequestCount() {
+        return requestCount;
+    }
+
+    public synchronized long getRetryCount() {
+        return retryCount;
+    }
+
+    /**
+     * @return 因为预算不足没有重试的次数
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BJRetryBudget{requests=" + requestCount + ", retries=" + retryCount
+                + ", rejected=" + rejectedCount + ", tokens=" + tokens + "}";
+    }
+}
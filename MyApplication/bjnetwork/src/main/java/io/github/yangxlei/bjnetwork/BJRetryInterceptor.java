@@ -0,0 +1,125 @@
+package io.github.yangxlei.bjnetwork;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.internal.Util;
+import okhttp3.internal.http.HttpDate;
+
+/**
+ * 按 {@link BJRetryPolicy} 重试请求. 单次请求的策略优先, 见 {@link BJNetCall#setRetryPolicy}, 否则使用
+ * {@link BJNetRequestManager#setRetryPolicy} 设置的全局策略.
+ * 作为应用拦截器在缓存之外执行, 退避等待期间请求被取消时立即返回.
+ */
+class BJRetryInterceptor implements Interceptor {
+
+    private final BJNetRequestManager mRequestManager;
+
+    BJRetryInterceptor(BJNetRequestManager requestManager) {
+        this.mRequestManager = requestManager;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        BJRequestTag tag = request.tag() instanceof BJRequestTag ? (BJRequestTag) request.tag() : null;
+
+        BJRetryPolicy policy = tag != null && tag.getRetryPolicy() != null
+                ? tag.getRetryPolicy() : mRequestManager.getRetryPolicy();
+        if (policy == null || tag == null || tag.isPrefetch() || tag.getMetrics().isHedge()) {
+            return chain.proceed(request);
+        }
+
+        BJRetryBudget budget = policy.isUseClientRetryBudget()
+                ? mRequestManager.getNetworkClient().getRetryBudget() : policy.getRetryBudget();
+        if (budget != null) {
+            budget.onRequest();
+        }
+        boolean retryableMethod = policy.isRetryableMethod(request.method());
+
+        for (int attempt = 1; ; attempt++) {
+            boolean lastAttempt = !retryableMethod || attempt >= policy.getMaxAttempts();
+
+            Response response;
+            try {
+                response = chain.proceed(request);
+            } catch (IOException e) {
+                long delay = policy.backoffMillis(attempt);
+                if (lastAttempt || tag.isCanceled() || e instanceof BJCircuitBreaker.CircuitOpenIOException
+                        || !policy.isRetryableException(e) || exceedsDeadline(tag, delay)
+                        || !acquire(budget)) {
+                    throw e;
+                }
+                backoff(tag, delay, e);
+                continue;
+            }
+
+            if (lastAttempt || !policy.isRetryableStatus(response.code())) {
+                return response;
+            }
+
+            long delay = policy.backoffMillis(attempt);
+            if (policy.isRespectRetryAfter()) {
+                long retryAfter = retryAfterMillis(response);
+                if (retryAfter > policy.getMaxBackoffMillis()) {
+                    // 服务端要求等待的时间太长, 直接返回
+                    return response;
+                }
+                delay = Math.max(delay, retryAfter);
+            }
+            if (tag.isCanceled() || exceedsDeadline(tag, delay) || !acquire(budget)) {
+                return response;
+            }
+
+            Util.closeQuietly(response.body());
+            backoff(tag, delay, null);
+        }
+    }
+
+    /**
+     * @return 等待 delay 之后已经超过请求的截止时间
+     */
+    private static boolean exceedsDeadline(BJRequestTag tag, long delayMillis) {
+        long deadlineNanos = tag.getDeadlineNanos();
+        return deadlineNanos != 0
+                && System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis) - deadlineNanos >= 0;
+    }
+
+    private static boolean acquire(BJRetryBudget budget) {
+        return budget == null || budget.tryAcquireRetry();
+    }
+
+    private static void backoff(BJRequestTag tag, long millis, IOException cause) throws IOException {
+        try {
+            if (!tag.awaitRetry(millis)) {
+                throw cause != null ? cause : new IOException("Canceled");
+            }
+        } catch (InterruptedException e) {
+            InterruptedIOException exception = new InterruptedIOException("interrupted while waiting to retry");
+            exception.initCause(e);
+            throw exception;
+        }
+        tag.getMetrics().addRetry();
+    }
+
+    /**
+     * @return Retry-After 对应的等待时间, 没有时返回 0
+     */
+    static long retryAfterMillis(Response response) {
+        String value = response.header("Retry-After");
+        if (value == null) return 0;
+        value = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException ignore) {
+        }
+        Date date = HttpDate.parse(value);
+        if (date == null) return 0;
+        return Math.max(0, date.getTime() - System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,222 @@
+package io.github.yangxlei.bjnetwork;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * 请求重试策略. 退避时间为 min(maxBackoff, initialBackoff * multiplier ^ (attempt - 1)), 使用 full jitter
+ * 在 [0, 退避时间] 之间随机取值, 避免大量客户端同时重试.
+ * 默认只重试幂等请求 (GET, HEAD, PUT, DELETE, OPTIONS), 所有重试受 {@link BJRetryBudget} 限制.
+ */
+public class BJRetryPolicy {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 200;
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 10 * 1000;
+
+    private static final Set<String> IDEMPOTENT_METHODS = Collections.unmodifiableSet(
+            new HashSet<>(Arrays.asList("GET", "HEAD", "PUT", "DELETE", "OPTIONS")));
+
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final double multiplier;
+    private final boolean jitter;
+    private final Set<Integer> retryableStatusCodes;
+    private final Set<Class<? extends IOException>> retryableExceptions;
+    private final boolean retryNonIdempotent;
+    private final boolean respectRetryAfter;
+    private final BJRetryBudget mRetryBudget;
+    private final boolean useClientRetryBudget;
+    private final Random mRandom = new Random();
+
+    private BJRetryPolicy(Builder builder) {
+        this.maxAttempts = builder.maxAttempts;
+        this.initialBackoffMillis = builder.initialBackoffMillis;
+        this.maxBackoffMillis = builder.maxBackoffMillis;
+        this.multiplier = builder.multiplier;
+        this.jitter = builder.jitter;
+        this.retryableStatusCodes = Collections.unmodifiableSet(new HashSet<>(builder.retryableStatusCodes));
+        this.retryableExceptions = Collections.unmodifiableSet(new HashSet<>(builder.retryableExceptions));
+        this.retryNonIdempotent = builder.retryNonIdempotent;
+        this.respectRetryAfter = builder.respectRetryAfter;
+        this.mRetryBudget = builder.mRetryBudget;
+        this.useClientRetryBudget = builder.useClientRetryBudget;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getMaxBackoffMillis() {
+        return maxBackoffMillis;
+    }
+
+    public boolean isRespectRetryAfter() {
+        return respectRetryAfter;
+    }
+
+    /**
+     * @return 设置的重试预算, 可能为 null (不限制, 或者使用 {@link BJNetworkClient#getRetryBudget()})
+     */
+    public BJRetryBudget getRetryBudget() {
+        return mRetryBudget;
+    }
+
+    /**
+     * @return 没有设置预算, 使用 {@link BJNetworkClient#getRetryBudget()}
+     */
+    boolean isUseClientRetryBudget() {
+        return useClientRetryBudget;
+    }
+
+    public boolean isRetryableMethod(String method) {
+        return retryNonIdempotent || IDEMPOTENT_METHODS.contains(method);
+    }
+
+    public boolean isRetryableStatus(int code) {
+        return retryableStatusCodes.contains(code);
+    }
+
+    public boolean isRetryableException(IOException e) {
+        for (Class<? extends IOException> clazz : retryableExceptions) {
+            if (clazz.isInstance(e)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param attempt 已经执行的次数, 从 1 开始
+     * @return 下一次重试之前等待的时间, 单位毫秒
+     */
+    public long backoffMillis(int attempt) {
+        double backoff = initialBackoffMillis * Math.pow(multiplier, attempt - 1);
+        long millis = (long) Math.min(maxBackoffMillis, backoff);
+        if (jitter && millis > 0) {
+            synchronized (mRandom) {
+                millis = (long) (mRandom.nextDouble() * (millis + 1));
+            }
+        }
+        return millis;
+    }
+
+    public Builder newBuilder() {
+        return new Builder(this);
+    }
+
+    public static class Builder {
+        private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+        private long initialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLIS;
+        private long maxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+        private double multiplier = 2;
+        private boolean jitter = true;
+        private Set<Integer> retryableStatusCodes = new HashSet<>(Arrays.asList(408, 429, 502, 503, 504));
+        private Set<Class<? extends IOException>> retryableExceptions = new HashSet<>();
+        private boolean retryNonIdempotent = false;
+        private boolean respectRetryAfter = true;
+        private BJRetryBudget mRetryBudget;
+        private boolean useClientRetryBudget = true;
+
+        public Builder() {
+            retryableExceptions.add(IOException.class);
+        }
+
+        private Builder(BJRetryPolicy policy) {
+            this.maxAttempts = policy.maxAttempts;
+            this.initialBackoffMillis = policy.initialBackoffMillis;
+            this.maxBackoffMillis = policy.maxBackoffMillis;
+            this.multiplier = policy.multiplier;
+            this.jitter = policy.jitter;
+            this.retryableStatusCodes = new HashSet<>(policy.retryableStatusCodes);
+            this.retryableExceptions = new HashSet<>(policy.retryableExceptions);
+            this.retryNonIdempotent = policy.retryNonIdempotent;
+            this.respectRetryAfter = policy.respectRetryAfter;
+            this.mRetryBudget = policy.mRetryBudget;
+            this.useClientRetryBudget = policy.useClientRetryBudget;
+        }
+
+        /**
+         * @param maxAttempts 最多执行次数 (包含第一次), default 3
+         */
+        public Builder setMaxAttempts(int maxAttempts) {
+            if (maxAttempts < 1) throw new IllegalArgumentException("maxAttempts < 1");
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * @param initialBackoffMillis default 200ms
+         * @param maxBackoffMillis default 10s. 同时也是 Retry-After 的上限, 超过时不再重试
+         * @param multiplier default 2
+         */
+        public Builder setBackoff(long initialBackoffMillis, long maxBackoffMillis, double multiplier) {
+            if (initialBackoffMillis < 0 || maxBackoffMillis < initialBackoffMillis || multiplier < 1) {
+                throw new IllegalArgumentException("invalid backoff");
+            }
+            this.initialBackoffMillis = initialBackoffMillis;
+            this.maxBackoffMillis = maxBackoffMillis;
+            this.multiplier = multiplier;
+            return this;
+        }
+
+        /**
+         * @param jitter default true
+         */
+        public Builder setJitter(boolean jitter) {
+            this.jitter = jitter;
+            return this;
+        }
+
+        /**
+         * @param codes 需要重试的响应码, default 408, 429, 502, 503, 504
+         */
+        public Builder setRetryableStatusCodes(Integer... codes) {
+            this.retryableStatusCodes = new HashSet<>(Arrays.asList(codes));
+            return this;
+        }
+
+        /**
+         * @param exceptions 需要重试的异常类型 (包括子类), default IOException. 请求被取消时不会重试
+         */
+        public Builder setRetryableExceptions(Collection<Class<? extends IOException>> exceptions) {
+            this.retryableExceptions = new HashSet<>(exceptions);
+            return this;
+        }
+
+        /**
+         * @param retryNonIdempotent 是否重试 POST 等非幂等请求, default false
+         */
+        public Builder setRetryNonIdempotent(boolean retryNonIdempotent) {
+            this.retryNonIdempotent = retryNonIdempotent;
+            return this;
+        }
+
+        /**
+         * @param respectRetryAfter 429/503 响应带有 Retry-After 时按其等待, default true
+         */
+        public Builder setRespectRetryAfter(boolean respectRetryAfter) {
+            this.respectRetryAfter = respectRetryAfter;
+            return this;
+        }
+
+        /**
+         * @param retryBudget 重试预算, default {@link BJNetworkClient#getRetryBudget()}. null 表示不限制
+         */
+        public Builder setRetryBudget(BJRetryBudget retryBudget) {
+            this.mRetryBudget = retryBudget;
+            this.useClientRetryBudget = false;
+            return this;
+        }
+
+        public BJRetryPolicy build() {
+            return new BJRetryPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package io.github.yangxlei.bjnetwork;
+
+/**
+ * text/event-stream 中的一个事件, 见 {@link BJEventSource}
+ */
+public class BJServerSentEvent {
+
+    private final String id;
+    private final String type;
+    private final String data;
+
+    public BJServerSentEvent(String id, String type, String data) {
+        this.id = id;
+        this.type = type;
+        this.data = data;
+    }
+
+    /**
+     * @return 事件的 id, 没有 id 字段时为上一个事件的 id, 可能为 null
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return event 字段, 默认 "message"
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * @return 所有 data 字段, 以 "\n" 连接
+     */
+    public String getData() {
+        return data;
+    }
+
+    @Override
+    public String toString() {
+        return "BJServerSentEvent{id=" + id + ", type=" + type + ", data=" + data + "}";
+    }
+}
@@ -0,0 +1,18 @@
+package io.github.yangxlei.bjnetwork;
+
+/**
+ * 熔断中的请求直接失败, 见 {@link BJCircuitBreaker}
+ */
+public class CircuitBreakerException extends HttpException {
+
+    private final String host;
+
+    public CircuitBreakerException(BJCircuitBreaker.CircuitOpenIOException e, BJCallMetrics metrics) {
+        super(e, metrics);
+        this.host = e.getHost();
+    }
+
+    public String getHost() {
+        return host;
+    }
+}
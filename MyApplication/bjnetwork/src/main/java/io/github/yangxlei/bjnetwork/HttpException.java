@@ -8,6 +8,7 @@ public class HttpException extends RuntimeException {
     protected String message;
     protected Exception originException;
     protected BJResponse mResponse;
+    protected BJCallMetrics mMetrics;
 
     public HttpException(Exception e) {
         this.code = -1;
@@ -16,11 +17,17 @@ public class HttpException extends RuntimeException {
         this.mResponse = null;
     }
 
+    public HttpException(Exception e, BJCallMetrics metrics) {
+        this(e);
+        this.mMetrics = metrics;
+    }
+
     public HttpException(BJResponse response) {
         this.code = response.code();
         this.message = response.message();
         this.mResponse = response;
         this.originException = null;
+        this.mMetrics = response.getMetrics();
     }
 
     public HttpException(int code, String message) {
@@ -30,6 +37,19 @@ public class HttpException extends RuntimeException {
         this.mResponse = null;
     }
 
+    /**
+     * 把请求过程中的异常转换为对应的 HttpException, 例如熔断时为 {@link CircuitBreakerException}
+     */
+    public static HttpException wrap(Exception e, BJCallMetrics metrics) {
+        if (e instanceof HttpException) {
+            return (HttpException) e;
+        }
+        if (e instanceof BJCircuitBreaker.CircuitOpenIOException) {
+            return new CircuitBreakerException((BJCircuitBreaker.CircuitOpenIOException) e, metrics);
+        }
+        return new HttpException(e, metrics);
+    }
+
     public int getCode() {
         return code;
     }
@@ -46,5 +66,12 @@ public class HttpException extends RuntimeException {
     public BJResponse getResponse() {
         return mResponse;
     }
+
+    /**
+     * @return 请求的耗时统计, 可能为 null
+     */
+    public BJCallMetrics getMetrics() {
+        return mMetrics;
+    }
 }
 
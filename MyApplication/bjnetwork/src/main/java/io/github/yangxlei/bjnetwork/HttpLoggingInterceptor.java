@@ -20,6 +20,11 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.charset.UnsupportedCharsetException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import okhttp3.Connection;
@@ -35,7 +40,11 @@ import okhttp3.ResponseBody;
 import okhttp3.internal.Platform;
 import okhttp3.internal.http.HttpEngine;
 import okio.Buffer;
+import okio.BufferedSink;
 import okio.BufferedSource;
+import okio.ForwardingSink;
+import okio.ForwardingSource;
+import okio.Okio;
 
 import static okhttp3.internal.Platform.INFO;
 
@@ -125,9 +134,18 @@ public final class HttpLoggingInterceptor implements Interceptor {
     }
 
     private final Logger logger;
+    private final Random random = new Random();
 
     private volatile Level level = Level.NONE;
 
+    /** Bodies are captured up to this many bytes by default. */
+    public static final long DEFAULT_MAX_CAPTURE_BYTES = 64 * 1024;
+
+    private volatile long maxCaptureBytes = DEFAULT_MAX_CAPTURE_BYTES;
+    private volatile int samplePercent = 100;
+    private volatile Set<String> sampleHosts = Collections.emptySet();
+    private volatile boolean streamingCapture;
+
     /** Change the level at which this interceptor logs. */
     public HttpLoggingInterceptor setLevel(Level level) {
         if (level == null) throw new NullPointerException("level == null. Use Level.NONE instead.");
@@ -139,6 +157,55 @@ public final class HttpLoggingInterceptor implements Interceptor {
         return level;
     }
 
+    /**
+     * Bodies are logged up to {@code maxCaptureBytes}. Larger request bodies are not duplicated and
+     * larger response bodies are not buffered beyond this limit.
+     */
+    public HttpLoggingInterceptor setMaxCaptureBytes(long maxCaptureBytes) {
+        if (maxCaptureBytes < 0) throw new IllegalArgumentException("maxCaptureBytes < 0");
+        this.maxCaptureBytes = maxCaptureBytes;
+        return this;
+    }
+
+    public long getMaxCaptureBytes() {
+        return maxCaptureBytes;
+    }
+
+    /**
+     * Only capture bodies for this percentage of calls. Calls that are not sampled are logged at
+     * {@link Level#HEADERS}.
+     */
+    public HttpLoggingInterceptor setSamplePercent(int samplePercent) {
+        if (samplePercent < 0 || samplePercent > 100) {
+            throw new IllegalArgumentException("samplePercent must be in [0, 100]: " + samplePercent);
+        }
+        this.samplePercent = samplePercent;
+        return this;
+    }
+
+    /**
+     * Only capture bodies for calls to these hosts. Empty means all hosts.
+     */
+    public HttpLoggingInterceptor setSampleHosts(String... hosts) {
+        Set<String> set = new HashSet<>();
+        for (String host : hosts) {
+            set.add(host.toLowerCase(Locale.US));
+        }
+        this.sampleHosts = Collections.unmodifiableSet(set);
+        return this;
+    }
+
+    /**
+     * In streaming mode bodies are never buffered ahead of the consumer. The first {@code
+     * maxCaptureBytes} are copied as the call reads or writes them and logged when the limit is
+     * reached or the body ends. Event streams and bodies of unknown length are always captured this
+     * way, since reading ahead would block until the server sends {@code maxCaptureBytes}.
+     */
+    public HttpLoggingInterceptor setStreamingCapture(boolean streamingCapture) {
+        this.streamingCapture = streamingCapture;
+        return this;
+    }
+
     @Override public Response intercept(Chain chain) throws IOException {
         Level level = this.level;
 
@@ -147,8 +214,10 @@ public final class HttpLoggingInterceptor implements Interceptor {
             return chain.proceed(request);
         }
 
-        boolean logBody = level == Level.BODY;
-        boolean logHeaders = logBody || level == Level.HEADERS;
+        boolean logBody = level == Level.BODY && sampled(request);
+        boolean logHeaders = level == Level.BODY || level == Level.HEADERS;
+        long maxCaptureBytes = this.maxCaptureBytes;
+        boolean streamingCapture = this.streamingCapture;
 
         RequestBody requestBody = request.body();
         boolean hasRequestBody = requestBody != null;
@@ -186,6 +255,14 @@ public final class HttpLoggingInterceptor implements Interceptor {
                 logger.log("--> END " + request.method());
             } else if (bodyEncoded(request.headers())) {
                 logger.log("--> END " + request.method() + " (encoded body omitted)");
+            } else if (streamingCapture) {
+                // Log the body as it is written to the network instead of writing it twice.
+                request = request.newBuilder()
+                        .method(request.method(), new CapturingRequestBody(requestBody, request.method(), maxCaptureBytes))
+                        .build();
+            } else if (requestBody.contentLength() == -1 || requestBody.contentLength() > maxCaptureBytes) {
+                logger.log("--> END " + request.method() + " (" + requestBody.contentLength()
+                        + "-byte body exceeds " + maxCaptureBytes + "-byte capture limit, omitted)");
             } else {
                 Buffer buffer = new Buffer();
                 requestBody.writeTo(buffer);
@@ -235,10 +312,16 @@ public final class HttpLoggingInterceptor implements Interceptor {
                 logger.log("<-- END HTTP");
             } else if (bodyEncoded(response.headers())) {
                 logger.log("<-- END HTTP (encoded body omitted)");
+            } else if (streamingCapture || isStreamingBody(responseBody)) {
+                return response.newBuilder()
+                        .body(new CapturingResponseBody(responseBody, maxCaptureBytes))
+                        .build();
             } else {
                 BufferedSource source = responseBody.source();
-                source.request(Long.MAX_VALUE); // Buffer the entire body.
-                Buffer buffer = source.buffer();
+                // Buffer at most one byte beyond the capture limit to learn whether the body was truncated.
+                boolean truncated = source.request(maxCaptureBytes == Long.MAX_VALUE ? Long.MAX_VALUE : maxCaptureBytes + 1);
+                Buffer buffer = new Buffer();
+                source.buffer().copyTo(buffer, 0, Math.min(source.buffer().size(), maxCaptureBytes));
 
                 Charset charset = UTF8;
                 MediaType contentType = responseBody.contentType();
@@ -265,7 +348,11 @@ public final class HttpLoggingInterceptor implements Interceptor {
                     logger.log(buffer.clone().readString(charset));
                 }
 
-                logger.log("<-- END HTTP (" + buffer.size() + "-byte body)");
+                if (truncated) {
+                    logger.log("<-- END HTTP (first " + buffer.size() + " bytes of " + bodySize + " body)");
+                } else {
+                    logger.log("<-- END HTTP (" + buffer.size() + "-byte body)");
+                }
             }
         }
 
@@ -296,6 +383,159 @@ public final class HttpLoggingInterceptor implements Interceptor {
         }
     }
 
+    private boolean sampled(Request request) {
+        Set<String> sampleHosts = this.sampleHosts;
+        if (!sampleHosts.isEmpty() && !sampleHosts.contains(request.url().host())) {
+            return false;
+        }
+        int samplePercent = this.samplePercent;
+        return samplePercent >= 100 || (samplePercent > 0 && random.nextInt(100) < samplePercent);
+    }
+
+    private void logCaptured(Buffer captured, MediaType contentType, String endMessage) {
+        Charset charset = UTF8;
+        if (contentType != null) {
+            try {
+                charset = contentType.charset(UTF8);
+            } catch (UnsupportedCharsetException e) {
+                logger.log(endMessage + " (charset is likely malformed)");
+                return;
+            }
+        }
+        try {
+            if (!isPlaintext(captured)) {
+                logger.log(endMessage + " (binary body omitted)");
+                return;
+            }
+        } catch (EOFException e) {
+            logger.log(endMessage + " (binary body omitted)");
+            return;
+        }
+        if (captured.size() > 0) {
+            logger.log("");
+            logger.log(captured.readString(charset));
+        }
+        logger.log(endMessage);
+    }
+
+    /** Copies the first bytes written to the network and logs them once the body is written. */
+    private final class CapturingRequestBody extends RequestBody {
+        private final RequestBody delegate;
+        private final String method;
+        private final long maxCaptureBytes;
+
+        CapturingRequestBody(RequestBody delegate, String method, long maxCaptureBytes) {
+            this.delegate = delegate;
+            this.method = method;
+            this.maxCaptureBytes = maxCaptureBytes;
+        }
+
+        @Override public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override public long contentLength() throws IOException {
+            return delegate.contentLength();
+        }
+
+        @Override public void writeTo(BufferedSink sink) throws IOException {
+            final Buffer captured = new Buffer();
+            final long[] total = new long[1];
+            BufferedSink capturingSink = Okio.buffer(new ForwardingSink(sink) {
+                @Override public void write(Buffer source, long byteCount) throws IOException {
+                    long remaining = maxCaptureBytes - captured.size();
+                    if (remaining > 0) {
+                        source.copyTo(captured, 0, Math.min(remaining, byteCount));
+                    }
+                    total[0] += byteCount;
+                    super.write(source, byteCount);
+                }
+            });
+            delegate.writeTo(capturingSink);
+            capturingSink.emit();
+
+            String end = "--> END " + method + " (" + (total[0] > captured.size()
+                    ? "first " + captured.size() + " bytes of " + total[0] + "-byte body)"
+                    : total[0] + "-byte body)");
+            logCaptured(captured, delegate.contentType(), end);
+        }
+    }
+
+    /**
+     * Copies the first bytes as the consumer reads them, so the body is never buffered ahead of the
+     * consumer. Logs once the capture limit is reached, the body is exhausted or it is closed.
+     */
+    private final class CapturingResponseBody extends ResponseBody {
+        private final ResponseBody delegate;
+        private final long maxCaptureBytes;
+        private final Buffer captured = new Buffer();
+        private BufferedSource bufferedSource;
+        private long total;
+        private boolean logged;
+
+        CapturingResponseBody(ResponseBody delegate, long maxCaptureBytes) {
+            this.delegate = delegate;
+            this.maxCaptureBytes = maxCaptureBytes;
+        }
+
+        @Override public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override public long contentLength() {
+            return delegate.contentLength();
+        }
+
+        @Override public BufferedSource source() {
+            if (bufferedSource == null) {
+                bufferedSource = Okio.buffer(new ForwardingSource(delegate.source()) {
+                    @Override public long read(Buffer sink, long byteCount) throws IOException {
+                        long read = super.read(sink, byteCount);
+                        if (read == -1) {
+                            log(false);
+                            return read;
+                        }
+                        total += read;
+                        long remaining = maxCaptureBytes - captured.size();
+                        if (remaining > 0) {
+                            sink.copyTo(captured, sink.size() - read, Math.min(remaining, read));
+                        }
+                        if (captured.size() >= maxCaptureBytes) {
+                            log(true);
+                        }
+                        return read;
+                    }
+
+                    @Override public void close() throws IOException {
+                        log(true);
+                        super.close();
+                    }
+                });
+            }
+            return bufferedSource;
+        }
+
+        private void log(boolean mayBeTruncated) {
+            if (logged) return;
+            logged = true;
+            String end = mayBeTruncated
+                    ? "<-- END HTTP (streamed, first " + captured.size() + " bytes of " + total + "+ bytes read)"
+                    : "<-- END HTTP (streamed, " + total + "-byte body)";
+            logCaptured(captured, delegate.contentType(), end);
+        }
+    }
+
+    /**
+     * Returns true for bodies that may stay open indefinitely, such as server-sent events or chunked
+     * streams. Buffering them ahead of the consumer would stall the call.
+     */
+    private static boolean isStreamingBody(ResponseBody body) {
+        if (body.contentLength() == -1) return true;
+        MediaType contentType = body.contentType();
+        return contentType != null && "text".equals(contentType.type())
+                && "event-stream".equals(contentType.subtype());
+    }
+
     private boolean bodyEncoded(Headers headers) {
         String contentEncoding = headers.get("Content-Encoding");
         return contentEncoding != null && !contentEncoding.equalsIgnoreCase("identity");
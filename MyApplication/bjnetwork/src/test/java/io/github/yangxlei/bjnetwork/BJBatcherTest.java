@@ -0,0 +1,152 @@
+package io.github.yangxlei.bjnetwork;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+public class BJBatcherTest {
+
+    private MockWebServer mServer;
+    private BJNetRequestManager mRequestManager;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockWebServer();
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                if (request.getPath().equals("/batch")) {
+                    // 响应乱序, 并且缺少 item-2
+                    return new MockResponse()
+                            .setHeader("Content-Type", "multipart/mixed; boundary=batch")
+                            .setBody("--batch\r\n"
+                                    + "Content-Type: application/http\r\n"
+                                    + "Content-ID: <response-item-3>\r\n"
+                                    + "\r\n"
+                                    + "HTTP/1.1 200 OK\r\n"
+                                    + "Content-Type: text/plain\r\n"
+                                    + "\r\n"
+                                    + "c\r\n"
+                                    + "--batch\r\n"
+                                    + "Content-Type: application/http\r\n"
+                                    + "Content-ID: <response-item-1>\r\n"
+                                    + "\r\n"
+                                    + "HTTP/1.1 200 OK\r\n"
+                                    + "Content-Type: text/plain\r\n"
+                                    + "\r\n"
+                                    + "a\r\n"
+                                    + "--batch--\r\n");
+                }
+                return new MockResponse().setBody(request.getPath());
+            }
+        });
+        mServer.start();
+        mRequestManager = new BJNetRequestManager(new BJNetworkClient.Builder().build());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void batch_demuxByContentId() throws Exception {
+        BJBatcher batcher = mRequestManager.newBatcher(mServer.url("/batch").toString());
+        batcher.setWindow(10000);
+        CountDownLatch latch = new CountDownLatch(3);
+        RecordingCallback a = new RecordingCallback(latch);
+        RecordingCallback b = new RecordingCallback(latch);
+        RecordingCallback c = new RecordingCallback(latch);
+        batcher.get(mServer.url("/a").toString(), null, this, a);
+        batcher.get(mServer.url("/b").toString(), null, this, b);
+        batcher.get(mServer.url("/c").toString(), null, this, c);
+        batcher.flush();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        RecordedRequest request = mServer.takeRequest();
+        assertEquals("/batch", request.getPath());
+        assertTrue(request.getHeader("Content-Type").startsWith("multipart/mixed"));
+        String body = request.getBody().readUtf8();
+        assertTrue(body.contains("Content-ID: <item-1>") && body.contains("GET /a HTTP/1.1"));
+        assertTrue(body.contains("Content-ID: <item-3>") && body.contains("GET /c HTTP/1.1"));
+        assertEquals(1, mServer.getRequestCount());
+
+        assertEquals("a", a.body);
+        assertEquals("c", c.body);
+        assertNull(b.body);
+        assertTrue(b.failure.getOriginException() instanceof ProtocolException);
+    }
+
+    @Test
+    public void singleRequest_bypassesBatchUrl() throws Exception {
+        BJBatcher batcher = mRequestManager.newBatcher(mServer.url("/batch").toString());
+        batcher.setWindow(10000);
+        CountDownLatch latch = new CountDownLatch(1);
+        RecordingCallback a = new RecordingCallback(latch);
+        batcher.get(mServer.url("/a").toString(), null, this, a);
+        batcher.flush();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        assertEquals("/a", mServer.takeRequest().getPath());
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals("/a", a.body);
+    }
+
+    @Test
+    public void cancelCalls_removesPendingItems() throws Exception {
+        BJBatcher batcher = mRequestManager.newBatcher(mServer.url("/batch").toString());
+        batcher.setWindow(10000);
+        Object tag = new Object();
+        CountDownLatch latch = new CountDownLatch(2);
+        RecordingCallback a = new RecordingCallback(latch);
+        RecordingCallback b = new RecordingCallback(latch);
+        BJNetCall call = batcher.get(mServer.url("/a").toString(), null, tag, a);
+        batcher.get(mServer.url("/b").toString(), null, tag, b);
+        mRequestManager.cancelCalls(tag);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        batcher.flush();
+
+        assertTrue(call.isCanceled());
+        assertEquals("Canceled", a.failure.getMessage());
+        assertEquals("Canceled", b.failure.getMessage());
+        assertEquals(0, mServer.getRequestCount());
+    }
+
+    private static class RecordingCallback extends BJNetCallback {
+        private final CountDownLatch mLatch;
+        volatile String body;
+        volatile HttpException failure;
+
+        RecordingCallback(CountDownLatch latch) {
+            this.mLatch = latch;
+        }
+
+        @Override
+        public void onFailure(HttpException e) {
+            failure = e;
+            mLatch.countDown();
+        }
+
+        @Override
+        public void onResponse(BJResponse response) {
+            try {
+                body = response.getResponseString();
+            } catch (IOException e) {
+                failure = new HttpException(e);
+            }
+            mLatch.countDown();
+        }
+    }
+}
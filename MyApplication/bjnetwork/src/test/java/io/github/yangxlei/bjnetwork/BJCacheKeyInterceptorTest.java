@@ -0,0 +1,56 @@
+package io.github.yangxlei.bjnetwork;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.*;
+
+public class BJCacheKeyInterceptorTest {
+
+    private MockWebServer mServer;
+    private BJNetRequestManager mRequestManager;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockWebServer();
+        mServer.start();
+        BJNetworkClient client = new BJNetworkClient.Builder()
+                .setCacheKeyNormalizer(new BJDefaultCacheKeyNormalizer("ts"))
+                .build();
+        mRequestManager = new BJNetRequestManager(client);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void request_sendsOriginalUrl() throws Exception {
+        mServer.enqueue(new MockResponse().setBody("old"));
+
+        BJResponse response = mRequestManager.newGetCall(mServer.url("/old?b=1&a=2&ts=9").toString())
+                .executeSync(this);
+
+        assertEquals("old", response.getResponseString());
+        assertEquals("/old?b=1&a=2&ts=9", mServer.takeRequest().getPath());
+    }
+
+    @Test
+    public void redirect_followsLocation() throws Exception {
+        mServer.enqueue(new MockResponse().setResponseCode(302).setHeader("Location", "/new"));
+        mServer.enqueue(new MockResponse().setBody("new"));
+
+        BJResponse response = mRequestManager.newGetCall(mServer.url("/old?b=1&a=2&ts=9").toString())
+                .executeSync(this);
+
+        assertEquals("new", response.getResponseString());
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals("/old?b=1&a=2&ts=9", mServer.takeRequest().getPath());
+        assertEquals("/new", mServer.takeRequest().getPath());
+    }
+}
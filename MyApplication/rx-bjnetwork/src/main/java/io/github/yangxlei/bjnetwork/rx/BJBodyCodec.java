@@ -0,0 +1,31 @@
+package io.github.yangxlei.bjnetwork.rx;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okio.BufferedSink;
+import okio.BufferedSource;
+
+/**
+ * 请求体和响应体的编解码, 直接读写字节流. 通过 {@link BJRxNetRequestManager#addBodyCodec} 注册,
+ * 按响应的 Content-Type 选择. JSON 的实现见 {@link BJJsonBodyCodec}.
+ */
+public interface BJBodyCodec {
+
+    /**
+     * @return 编码请求体时使用的 Content-Type, 同时加入请求的 Accept
+     */
+    MediaType contentType();
+
+    /**
+     * @return 是否可以解码该 Content-Type 的响应体
+     */
+    boolean canDecode(MediaType contentType);
+
+    /**
+     * @param contentType 响应的 Content-Type, 可能为 null
+     */
+    <T> T decode(Class<T> clazz, BufferedSource source, MediaType contentType) throws IOException;
+
+    void encode(Object model, BufferedSink sink) throws IOException;
+}
@@ -0,0 +1,51 @@
+package io.github.yangxlei.bjnetwork.rx;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import io.github.yangxlei.bjnetwork.BJRequestBody;
+import okhttp3.MediaType;
+import okio.BufferedSink;
+import okio.BufferedSource;
+
+/**
+ * 使用 {@link JsonAdapter} 的 JSON 编解码, 处理 application/json 以及 +json 后缀的类型
+ */
+public class BJJsonBodyCodec implements BJBodyCodec {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final JsonAdapter mJsonAdapter;
+
+    public BJJsonBodyCodec(JsonAdapter jsonAdapter) {
+        if (jsonAdapter == null) {
+            throw new NullPointerException("JsonAdapter is null");
+        }
+        this.mJsonAdapter = jsonAdapter;
+    }
+
+    public JsonAdapter getJsonAdapter() {
+        return mJsonAdapter;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return BJRequestBody.MEDIA_TYPE_JSON;
+    }
+
+    @Override
+    public boolean canDecode(MediaType contentType) {
+        return contentType != null && ("json".equals(contentType.subtype()) || contentType.subtype().endsWith("+json"));
+    }
+
+    @Override
+    public <T> T decode(Class<T> clazz, BufferedSource source, MediaType contentType) throws IOException {
+        Charset charset = contentType == null ? UTF_8 : contentType.charset(UTF_8);
+        return mJsonAdapter.jsonStringToModel(clazz, source.readString(charset));
+    }
+
+    @Override
+    public void encode(Object model, BufferedSink sink) throws IOException {
+        sink.writeUtf8(mJsonAdapter.modelToJsonString(model));
+    }
+}
@@ -1,35 +1,84 @@
 package io.github.yangxlei.bjnetwork.rx;
 
 
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+import io.github.yangxlei.bjnetwork.BJCachePolicy;
+import io.github.yangxlei.bjnetwork.BJCallPriority;
+import io.github.yangxlei.bjnetwork.BJEventSource;
+import io.github.yangxlei.bjnetwork.BJEventSourceListener;
 import io.github.yangxlei.bjnetwork.BJNetCall;
+import io.github.yangxlei.bjnetwork.BJNetCallback;
 import io.github.yangxlei.bjnetwork.BJNetRequestManager;
 import io.github.yangxlei.bjnetwork.BJNetworkClient;
 import io.github.yangxlei.bjnetwork.BJRequestBody;
 import io.github.yangxlei.bjnetwork.BJResponse;
+import io.github.yangxlei.bjnetwork.BJResponseSource;
+import io.github.yangxlei.bjnetwork.BJServerSentEvent;
 import io.github.yangxlei.bjnetwork.HttpException;
+import okhttp3.Call;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import okio.ByteString;
 import rx.Observable;
 import rx.Producer;
 import rx.Subscriber;
 import rx.Subscription;
+import rx.exceptions.CompositeException;
 import rx.exceptions.Exceptions;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Func0;
+import rx.functions.Func1;
+import rx.subscriptions.Subscriptions;
 
 /**
  * Created by yanglei on 16/6/25.
  */
 public class BJRxNetRequestManager extends BJNetRequestManager {
 
+    /**
+     * 并发请求的失败处理, 见 {@link #rx_fanOutGet}
+     */
+    public enum FanOutFailurePolicy {
+        /**
+         * 第一个失败立即发射错误, 取消其余的请求
+         */
+        FAIL_FAST,
+        /**
+         * 失败的请求不发射结果, 其余请求完成后发射 {@link CompositeException}, 包含所有失败
+         */
+        COLLECT_ERRORS
+    }
+
     private JsonAdapter mJsonAdapter;
+    private final List<BJBodyCodec> mBodyCodecs = new CopyOnWriteArrayList<>();
 
     public BJRxNetRequestManager(BJNetworkClient client) {
         this(client, null);
     }
 
+    /**
+     * @param jsonAdapter 不为 null 时注册为第一个 {@link BJBodyCodec}, 见 {@link BJJsonBodyCodec}
+     */
     public BJRxNetRequestManager(BJNetworkClient client, JsonAdapter jsonAdapter) {
         super(client);
         this.mJsonAdapter = jsonAdapter;
+        if (jsonAdapter != null) {
+            mBodyCodecs.add(new BJJsonBodyCodec(jsonAdapter));
+        }
     }
 
     @Override
@@ -41,6 +90,68 @@ public class BJRxNetRequestManager extends BJNetRequestManager {
         return mJsonAdapter;
     }
 
+    /**
+     * 注册响应体和请求体的编解码, 例如 protobuf. 转换响应时按 Content-Type 选择第一个可以解码的 codec,
+     * 都不能解码时使用第一个注册的 codec. 注册了多个 codec 时, 转换为 model 的请求会在 Accept 中带上所有 codec 的类型.
+     */
+    public void addBodyCodec(BJBodyCodec codec) {
+        if (codec == null) throw new NullPointerException("codec is null.");
+        mBodyCodecs.add(codec);
+    }
+
+    public List<BJBodyCodec> getBodyCodecs() {
+        return Collections.unmodifiableList(mBodyCodecs);
+    }
+
+    /**
+     * 使用 contentType 对应的 codec 编码请求体
+     * @param contentType 为 null 时使用第一个注册的 codec
+     */
+    public BJRequestBody createRequestBody(final Object model, MediaType contentType) {
+        final BJBodyCodec codec = contentType == null ? findCodec(mBodyCodecs, null) : findEncoder(contentType);
+        return new BJRequestBody(new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return codec.contentType();
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                codec.encode(model, sink);
+            }
+        });
+    }
+
+    private BJBodyCodec findEncoder(MediaType contentType) {
+        for (BJBodyCodec codec : mBodyCodecs) {
+            MediaType type = codec.contentType();
+            if (type.type().equals(contentType.type()) && type.subtype().equals(contentType.subtype())) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("no BJBodyCodec for " + contentType);
+    }
+
+    /**
+     * 结果需要 codec 转换, 并且注册了多个 codec 时, 在请求头中加上 Accept.
+     * 只有一个 codec 时不需要协商, 不改变请求头 (以及 Vary: Accept 时的缓存)
+     */
+    private Map<String, String> withAccept(Map<String, String> headers, Class<?> clazz) {
+        if (mBodyCodecs.size() < 2 || clazz == BJResponse.class || clazz == String.class
+                || (headers != null && headers.containsKey("Accept"))) {
+            return headers;
+        }
+        StringBuilder accept = new StringBuilder();
+        for (BJBodyCodec codec : mBodyCodecs) {
+            MediaType type = codec.contentType();
+            if (accept.length() > 0) accept.append(", ");
+            accept.append(type.type()).append('/').append(type.subtype());
+        }
+        Map<String, String> result = headers == null ? new HashMap<String, String>() : new HashMap<>(headers);
+        result.put("Accept", accept.toString());
+        return result;
+    }
+
     public <T> Observable<T> rx_newGetCall(String url, Class<T> clazz) {
         return rx_newGetCall(url, null, 0, clazz);
     }
@@ -58,8 +169,8 @@ public class BJRxNetRequestManager extends BJNetRequestManager {
     }
 
     public <T> Observable<T> rx_newGetCall(String url, Map<String, String> headers, int cacheTime, Class<T> clazz) {
-        BJNetCall call = super.newGetCall(url, headers, cacheTime);
-        Observable<T> observable = Observable.create(new CallOnSubscribe(call, clazz, mJsonAdapter));
+        BJNetCall call = super.newGetCall(url, withAccept(headers, clazz), cacheTime);
+        Observable<T> observable = Observable.create(new CallOnSubscribe(call, clazz, mBodyCodecs));
         return observable;
     }
 
@@ -72,21 +183,348 @@ public class BJRxNetRequestManager extends BJNetRequestManager {
     }
 
     public <T> Observable<T> rx_newPostCall(String url, BJRequestBody requestBody, Map<String, String> headers, Class<T> clazz) {
-        BJNetCall call = super.newPostCall(url, requestBody, headers);
-        Observable<T> observable = Observable.create(new CallOnSubscribe(call, clazz, mJsonAdapter));
+        BJNetCall call = super.newPostCall(url, requestBody, withAccept(headers, clazz));
+        Observable<T> observable = Observable.create(new CallOnSubscribe(call, clazz, mBodyCodecs));
         return observable;
     }
 
+    /**
+     * 异步执行的 GET 请求, 不占用订阅线程, 在 OkHttp 的回调线程中发射结果. 取消订阅时取消请求.
+     * @param tag 请求所属的 tag, 见 {@link BJNetCall#executeAsync}. 可以通过 {@link #cancelCalls(Object)} 取消
+     */
+    public <T> Observable<T> rx_newGetCallAsync(String url, Object tag, Class<T> clazz) {
+        return rx_newGetCallAsync(url, null, 0, tag, clazz);
+    }
+
+    public <T> Observable<T> rx_newGetCallAsync(String url, int cacheTime, Object tag, Class<T> clazz) {
+        return rx_newGetCallAsync(url, null, cacheTime, tag, clazz);
+    }
+
+    public Observable<BJResponse> rx_newGetCallAsync(String url, Map<String, String> headers, int cacheTime, Object tag) {
+        return rx_newGetCallAsync(url, headers, cacheTime, tag, BJResponse.class);
+    }
+
+    public <T> Observable<T> rx_newGetCallAsync(String url, Map<String, String> headers, int cacheTime, Object tag,
+                                                Class<T> clazz) {
+        BJNetCall call = super.newGetCall(url, withAccept(headers, clazz), cacheTime);
+        return Observable.create(new AsyncCallOnSubscribe<>(call, tag, clazz, mBodyCodecs));
+    }
+
+    /**
+     * 异步执行的 POST 请求, 见 {@link #rx_newGetCallAsync(String, Map, int, Object, Class)}
+     */
+    public <T> Observable<T> rx_newPostCallAsync(String url, BJRequestBody requestBody, Object tag, Class<T> clazz) {
+        return rx_newPostCallAsync(url, requestBody, null, tag, clazz);
+    }
+
+    public Observable<BJResponse> rx_newPostCallAsync(String url, BJRequestBody requestBody, Map<String, String> headers,
+                                                      Object tag) {
+        return rx_newPostCallAsync(url, requestBody, headers, tag, BJResponse.class);
+    }
+
+    public <T> Observable<T> rx_newPostCallAsync(String url, BJRequestBody requestBody, Map<String, String> headers,
+                                                 Object tag, Class<T> clazz) {
+        BJNetCall call = super.newPostCall(url, requestBody, withAccept(headers, clazz));
+        return Observable.create(new AsyncCallOnSubscribe<>(call, tag, clazz, mBodyCodecs));
+    }
+
+    /**
+     * 流式读取响应体. 订阅者请求 n 个元素时才从响应体中读取 n 个, 内存占用与响应体大小无关.
+     * 请求和读取在调用 request 的线程中同步执行, 需要配合 subscribeOn 使用.
+     * 取消订阅时取消请求并关闭响应体.
+     * @param tag 请求所属的 tag, 见 {@link BJNetCall#executeSync}
+     * @param decoder 见 {@link BJStreamDecoders}
+     */
+    public <T> Observable<T> rx_newGetStream(String url, Map<String, String> headers, Object tag,
+                                             BJStreamDecoder<T> decoder) {
+        BJNetCall call = super.newGetCall(url, headers, 0);
+        call.setStreaming(true);
+        return Observable.create(new StreamOnSubscribe<>(call, tag, decoder));
+    }
+
+    public <T> Observable<T> rx_newPostStream(String url, BJRequestBody requestBody, Map<String, String> headers,
+                                              Object tag, BJStreamDecoder<T> decoder) {
+        BJNetCall call = super.newPostCall(url, requestBody, headers);
+        call.setStreaming(true);
+        return Observable.create(new StreamOnSubscribe<>(call, tag, decoder));
+    }
+
+    /**
+     * 按块读取响应体, 每块最多 {@link BJStreamDecoders#DEFAULT_CHUNK_SIZE} 字节
+     */
+    public Observable<ByteString> rx_newGetByteStream(String url, Map<String, String> headers, Object tag) {
+        return rx_newGetStream(url, headers, tag, BJStreamDecoders.chunks(BJStreamDecoders.DEFAULT_CHUNK_SIZE));
+    }
+
+    /**
+     * 按行读取响应体
+     */
+    public Observable<String> rx_newGetLineStream(String url, Map<String, String> headers, Object tag) {
+        return rx_newGetStream(url, headers, tag, BJStreamDecoders.lines());
+    }
+
+    /**
+     * 读取 NDJSON 响应体, 每行使用 JsonAdapter 转换为 clazz
+     */
+    public <T> Observable<T> rx_newGetNdjsonStream(String url, Map<String, String> headers, Object tag,
+                                                   Class<T> clazz) {
+        return rx_newGetStream(url, headers, tag, BJStreamDecoders.ndjson(mJsonAdapter, clazz));
+    }
+
+    /**
+     * Server-Sent Events 订阅, 见 {@link BJEventSource}. 订阅时连接, 取消订阅时断开.
+     * 断开后自动重连, 不发射错误; 服务端拒绝时发射 {@link HttpException}, 返回 204 时结束.
+     * 事件在读取线程中发射. 事件不能丢弃, 下游处理不过来时 (例如 observeOn 之后) 在内存中缓存 (onBackpressureBuffer),
+     * 只关心最新事件时可以在之后使用 onBackpressureLatest.
+     */
+    public Observable<BJServerSentEvent> rx_newEventSource(final String url, final Map<String, String> headers) {
+        return Observable.create(new Observable.OnSubscribe<BJServerSentEvent>() {
+            @Override
+            public void call(final Subscriber<? super BJServerSentEvent> subscriber) {
+                final BJEventSource eventSource = newEventSource(url, headers, new BJEventSourceListener() {
+                    @Override
+                    public void onOpen(BJEventSource eventSource) {
+                    }
+
+                    @Override
+                    public void onEvent(BJEventSource eventSource, BJServerSentEvent event) {
+                        if (!subscriber.isUnsubscribed()) {
+                            subscriber.onNext(event);
+                        }
+                    }
+
+                    @Override
+                    public void onReconnect(BJEventSource eventSource, HttpException cause) {
+                    }
+
+                    @Override
+                    public void onClosed(BJEventSource eventSource, HttpException cause) {
+                        if (subscriber.isUnsubscribed()) return;
+                        if (cause != null) {
+                            subscriber.onError(cause);
+                        } else {
+                            subscriber.onCompleted();
+                        }
+                    }
+                });
+                subscriber.add(Subscriptions.create(new Action0() {
+                    @Override
+                    public void call() {
+                        eventSource.close();
+                    }
+                }));
+                eventSource.connect();
+            }
+        }).onBackpressureBuffer();
+    }
+
+    /**
+     * 先发射缓存 (即使已过期), 再发射网络响应. 网络响应与缓存相同时 (304, 缓存仍在 cacheTime 内, ETag 或响应体相同) 不再发射.
+     * 没有缓存时只发射网络响应. 缓存读取使用 {@link BJCallPriority#HIGH}, 两个请求都不占用订阅线程.
+     * @param cacheTime 同 {@link #rx_newGetCall(String, Map, int, Class)}, 缓存仍然有效时不请求网络
+     * @param tag 请求所属的 tag, 见 {@link BJNetCall#executeAsync}
+     */
+    public <T> Observable<T> rx_newGetCallCacheThenNetwork(final String url, Map<String, String> headers,
+                                                           final int cacheTime, final Object tag, final Class<T> clazz) {
+        final Map<String, String> requestHeaders = withAccept(headers, clazz);
+        return Observable.defer(new Func0<Observable<T>>() {
+            @Override
+            public Observable<T> call() {
+                final ResponseSnapshot[] cached = new ResponseSnapshot[1];
+
+                BJNetCall cacheCall = newGetCall(url, requestHeaders, cacheTime, BJCachePolicy.CACHE_ONLY);
+                cacheCall.setPriority(BJCallPriority.HIGH);
+                Observable<ResponseSnapshot> cache = Observable.create(
+                        new AsyncCallOnSubscribe<>(cacheCall, tag, BJResponse.class, mBodyCodecs))
+                        .map(ResponseSnapshot.READ)
+                        .doOnNext(new Action1<ResponseSnapshot>() {
+                            @Override
+                            public void call(ResponseSnapshot snapshot) {
+                                cached[0] = snapshot;
+                            }
+                        })
+                        .onErrorResumeNext(new Func1<Throwable, Observable<ResponseSnapshot>>() {
+                            @Override
+                            public Observable<ResponseSnapshot> call(Throwable throwable) {
+                                // 没有缓存时为 504
+                                if (throwable instanceof HttpException
+                                        && ((HttpException) throwable).getResponse() != null) {
+                                    ((HttpException) throwable).getResponse().getResponse().close();
+                                }
+                                return Observable.empty();
+                            }
+                        });
+
+                Observable<ResponseSnapshot> network = Observable.defer(new Func0<Observable<ResponseSnapshot>>() {
+                    @Override
+                    public Observable<ResponseSnapshot> call() {
+                        BJNetCall networkCall = newGetCall(url, requestHeaders, cacheTime);
+                        return Observable.create(new AsyncCallOnSubscribe<>(networkCall, tag, BJResponse.class, mBodyCodecs))
+                                .map(ResponseSnapshot.READ)
+                                .filter(new Func1<ResponseSnapshot, Boolean>() {
+                                    @Override
+                                    public Boolean call(ResponseSnapshot snapshot) {
+                                        return cached[0] == null || !snapshot.isSameAs(cached[0]);
+                                    }
+                                });
+                    }
+                });
+
+                return cache.concatWith(network).map(new Func1<ResponseSnapshot, T>() {
+                    @Override
+                    public T call(ResponseSnapshot snapshot) {
+                        try {
+                            return convert(snapshot.response, clazz, mBodyCodecs);
+                        } catch (Exception e) {
+                            throw HttpException.wrap(e, snapshot.response.getMetrics());
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 分页请求, 每页发射一次. 第 n 页返回后调用 nextPageResolver 得到下一页的地址, 返回 null 时结束.
+     * 除了订阅者已经请求的页, 最多再预加载 prefetchPages 页, 翻到下一页时不必等待网络.
+     * 请求使用 {@link #rx_newGetCallAsync}, 取消订阅时取消正在进行的预加载.
+     * @param clazz 每页转换的类型, 不要使用 BJResponse, 预加载的页会占用连接
+     * @param prefetchPages 预加载的页数, 0 表示只在订阅者请求时加载
+     * @param nextPageResolver 根据当前页返回下一页的地址, 在 OkHttp 的回调线程中调用
+     */
+    public <P> Observable<P> rx_newPagedCall(final String firstPageUrl, final Map<String, String> headers,
+                                             final Object tag, final Class<P> clazz, final int prefetchPages,
+                                             final Func1<? super P, String> nextPageResolver) {
+        if (prefetchPages < 0) throw new IllegalArgumentException("prefetchPages < 0");
+        if (nextPageResolver == null) throw new NullPointerException("nextPageResolver is null.");
+        return Observable.create(new Observable.OnSubscribe<P>() {
+            @Override
+            public void call(Subscriber<? super P> subscriber) {
+                PagingProducer<P> producer = new PagingProducer<>(BJRxNetRequestManager.this, firstPageUrl, headers,
+                        tag, clazz, prefetchPages, nextPageResolver, subscriber);
+                subscriber.add(producer);
+                subscriber.setProducer(producer);
+            }
+        });
+    }
+
+    /**
+     * 并发请求一组 url, 同时进行的请求不超过 maxConcurrency. 使用 {@link #rx_newGetCallAsync}, 不占用订阅线程.
+     * 取消订阅时取消所有未完成的请求.
+     * @param ordered true 按 urls 的顺序发射结果, false 按完成的顺序发射
+     * @param failurePolicy 见 {@link FanOutFailurePolicy}
+     */
+    public <T> Observable<T> rx_fanOutGet(Iterable<String> urls, final Map<String, String> headers, final Object tag,
+                                          final Class<T> clazz, int maxConcurrency, boolean ordered,
+                                          FanOutFailurePolicy failurePolicy) {
+        return rx_fanOut(urls, new Func1<String, Observable<T>>() {
+            @Override
+            public Observable<T> call(String url) {
+                return rx_newGetCallAsync(url, headers, 0, tag, clazz);
+            }
+        }, maxConcurrency, ordered, failurePolicy);
+    }
+
+    /**
+     * 对 sources 中的每一项调用 call, 同时订阅的 Observable 不超过 maxConcurrency, 见 {@link #rx_fanOutGet}
+     */
+    public <S, T> Observable<T> rx_fanOut(final Iterable<S> sources,
+                                          final Func1<? super S, Observable<T>> call,
+                                          final int maxConcurrency, final boolean ordered,
+                                          final FanOutFailurePolicy failurePolicy) {
+        if (maxConcurrency < 1) throw new IllegalArgumentException("maxConcurrency < 1");
+        if (failurePolicy == null) throw new NullPointerException("failurePolicy is null.");
+        return Observable.defer(new Func0<Observable<T>>() {
+            @Override
+            public Observable<T> call() {
+                final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+                Func1<S, Observable<T>> mapper = new Func1<S, Observable<T>>() {
+                    @Override
+                    public Observable<T> call(S source) {
+                        Observable<T> observable = call.call(source);
+                        if (failurePolicy == FanOutFailurePolicy.FAIL_FAST) {
+                            return observable;
+                        }
+                        return observable.onErrorResumeNext(new Func1<Throwable, Observable<T>>() {
+                            @Override
+                            public Observable<T> call(Throwable throwable) {
+                                errors.add(throwable);
+                                return Observable.empty();
+                            }
+                        });
+                    }
+                };
+
+                Observable<S> from = Observable.from(sources);
+                Observable<T> results = ordered
+                        ? from.concatMapEager(mapper, maxConcurrency, maxConcurrency)
+                        : from.flatMap(mapper, maxConcurrency);
+                if (failurePolicy == FanOutFailurePolicy.FAIL_FAST) {
+                    return results;
+                }
+                return results.concatWith(Observable.defer(new Func0<Observable<T>>() {
+                    @Override
+                    public Observable<T> call() {
+                        if (errors.isEmpty()) {
+                            return Observable.empty();
+                        }
+                        return Observable.error(new CompositeException(new ArrayList<>(errors)));
+                    }
+                }));
+            }
+        });
+    }
+
+    /**
+     * 把响应转换为 resultClass. BJResponse 直接返回, 响应体由订阅者读取; 其他类型按 Content-Type 选择 codec
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T convert(BJResponse response, Class<T> resultClass, List<BJBodyCodec> codecs) throws IOException {
+        if (resultClass == null) {
+            throw new NullPointerException("Class<T> is null.");
+        } else if (resultClass.equals(BJResponse.class)) {
+            return (T) response;
+        } else if (resultClass.equals(String.class)) {
+            return (T) response.getResponseString();
+        } else {
+            ResponseBody body = response.getResponse().body();
+            MediaType contentType = body.contentType();
+            BJBodyCodec codec = findCodec(codecs, contentType);
+            try {
+                return codec.decode(resultClass, body.source(), contentType);
+            } finally {
+                body.close();
+            }
+        }
+    }
+
+    /**
+     * @return 可以解码 contentType 的 codec, 没有时返回第一个注册的 codec
+     */
+    static BJBodyCodec findCodec(List<BJBodyCodec> codecs, MediaType contentType) {
+        if (codecs.isEmpty()) {
+            throw new NullPointerException("JsonAdapter is null");
+        }
+        if (contentType != null) {
+            for (BJBodyCodec codec : codecs) {
+                if (codec.canDecode(contentType)) {
+                    return codec;
+                }
+            }
+        }
+        return codecs.get(0);
+    }
+
     static final class CallOnSubscribe<T> implements Observable.OnSubscribe<T> {
         private final BJNetCall originalCall;
 
         private Class<T> resultClass;
-        private JsonAdapter mJsonAdapter;
+        private List<BJBodyCodec> codecs;
 
-        CallOnSubscribe(BJNetCall originalCall, Class<T> resultClass, JsonAdapter jsonAdapter) {
+        CallOnSubscribe(BJNetCall originalCall, Class<T> resultClass, List<BJBodyCodec> codecs) {
             this.originalCall = originalCall;
             this.resultClass = resultClass;
-            this.mJsonAdapter = jsonAdapter;
+            this.codecs = codecs;
         }
 
         @Override
@@ -96,7 +534,7 @@ public class BJRxNetRequestManager extends BJNetRequestManager {
             // Wrap the call in a helper which handles both unsubscription and backpressure.
             RequestArbiter requestArbiter = new RequestArbiter(call, subscriber);
             requestArbiter.resultClass = resultClass;
-            requestArbiter.jsonAdapter = mJsonAdapter;
+            requestArbiter.codecs = codecs;
             subscriber.add(requestArbiter);
             subscriber.setProducer(requestArbiter);
         }
@@ -105,7 +543,7 @@ public class BJRxNetRequestManager extends BJNetRequestManager {
     static final class RequestArbiter<T> extends AtomicBoolean implements Subscription, Producer {
         private final BJNetCall call;
         private Class<T> resultClass;
-        private JsonAdapter jsonAdapter;
+        private List<BJBodyCodec> codecs;
         private final Subscriber<? super T> subscriber;
 
         RequestArbiter(BJNetCall call, Subscriber<? super T> subscriber) {
@@ -126,19 +564,7 @@ public class BJRxNetRequestManager extends BJNetRequestManager {
                 }
 
                 if (!subscriber.isUnsubscribed()) {
-                    if (jsonAdapter == null && resultClass == null) {
-                        throw new NullPointerException("Class<T> is null.");
-                    } else if (resultClass.equals(BJResponse.class)) {
-                        subscriber.onNext((T)response);
-                    } else if (resultClass.equals(String.class)) {
-                        subscriber.onNext((T)response.getResponseString());
-                    } else {
-                        if (jsonAdapter == null) {
-                            throw new NullPointerException("JsonAdapter is null");
-                        }
-                        T t = jsonAdapter.jsonStringToModel(resultClass, response.getResponseString());
-                        subscriber.onNext(t);
-                    }
+                    subscriber.onNext(convert(response, resultClass, codecs));
                 }
             } catch (Throwable t) {
                 if (t instanceof  HttpException) {
@@ -146,7 +572,7 @@ public class BJRxNetRequestManager extends BJNetRequestManager {
                         subscriber.onError(t);
                     }
                 } else if (t instanceof Exception) {
-                    HttpException exception = new HttpException((Exception) t);
+                    HttpException exception = HttpException.wrap((Exception) t, null);
                     if (!subscriber.isUnsubscribed()) {
                         subscriber.onError(exception);
                     }
@@ -168,4 +594,473 @@ public class BJRxNetRequestManager extends BJNetRequestManager {
             return call.isCanceled();
         }
     }
+
+    static final class AsyncCallOnSubscribe<T> implements Observable.OnSubscribe<T> {
+        private final BJNetCall originalCall;
+        private final Object tag;
+        private final Class<T> resultClass;
+        private final List<BJBodyCodec> codecs;
+
+        AsyncCallOnSubscribe(BJNetCall originalCall, Object tag, Class<T> resultClass, List<BJBodyCodec> codecs) {
+            this.originalCall = originalCall;
+            this.tag = tag;
+            this.resultClass = resultClass;
+            this.codecs = codecs;
+        }
+
+        @Override
+        public void call(Subscriber<? super T> subscriber) {
+            AsyncRequestArbiter<T> requestArbiter = new AsyncRequestArbiter<>(originalCall, tag, resultClass,
+                    codecs, subscriber);
+            subscriber.add(requestArbiter);
+            subscriber.setProducer(requestArbiter);
+        }
+    }
+
+    /**
+     * 收到请求数后调用 {@link BJNetCall#executeAsync}, 在回调中发射结果
+     */
+    static final class AsyncRequestArbiter<T> extends BJNetCallback implements Subscription, Producer {
+        private final BJNetCall call;
+        private final Object tag;
+        private final Class<T> resultClass;
+        private final List<BJBodyCodec> codecs;
+        private final Subscriber<? super T> subscriber;
+        private final AtomicBoolean requested = new AtomicBoolean();
+        private volatile boolean unsubscribed;
+
+        AsyncRequestArbiter(BJNetCall call, Object tag, Class<T> resultClass, List<BJBodyCodec> codecs,
+                            Subscriber<? super T> subscriber) {
+            this.call = call;
+            this.tag = tag;
+            this.resultClass = resultClass;
+            this.codecs = codecs;
+            this.subscriber = subscriber;
+        }
+
+        @Override public void request(long n) {
+            if (n < 0) throw new IllegalArgumentException("n < 0: " + n);
+            if (n == 0) return; // Nothing to do when requesting 0.
+            if (!requested.compareAndSet(false, true)) return; // Request was already triggered.
+            if (unsubscribed) return;
+
+            try {
+                call.executeAsync(tag, this);
+            } catch (Exception e) {
+                onFailure(HttpException.wrap(e, null));
+            }
+        }
+
+        @Override
+        public void onResponse(Call okCall, Response response) throws IOException {
+            BJResponse bjResponse = new BJResponse(response);
+            boolean handOff = false;
+            try {
+                if (unsubscribed) return;
+                if (!response.isSuccessful()) {
+                    // 与同步请求一致, 错误响应的响应体可以通过 HttpException 读取
+                    handOff = true;
+                    onFailure(new HttpException(bjResponse));
+                    return;
+                }
+                T t;
+                try {
+                    t = convert(bjResponse, resultClass, codecs);
+                } catch (Exception e) {
+                    onFailure(HttpException.wrap(e, bjResponse.getMetrics()));
+                    return;
+                }
+                // BJResponse 的响应体交给订阅者读取, 不在这里关闭
+                handOff = t == bjResponse;
+                if (!unsubscribed) {
+                    subscriber.onNext(t);
+                }
+                if (!unsubscribed) {
+                    subscriber.onCompleted();
+                }
+            } finally {
+                if (!handOff) {
+                    response.close();
+                }
+            }
+        }
+
+        @Override
+        public void onResponse(BJResponse response) {
+            // 由 onResponse(Call, Response) 处理
+        }
+
+        @Override
+        public void onFailure(HttpException e) {
+            if (!unsubscribed) {
+                subscriber.onError(e);
+            }
+        }
+
+        @Override public void unsubscribe() {
+            unsubscribed = true;
+            call.cancel();
+        }
+
+        @Override public boolean isUnsubscribed() {
+            return unsubscribed;
+        }
+    }
+
+    static final class StreamOnSubscribe<T> implements Observable.OnSubscribe<T> {
+        private final BJNetCall originalCall;
+        private final Object tag;
+        private final BJStreamDecoder<T> decoder;
+
+        StreamOnSubscribe(BJNetCall originalCall, Object tag, BJStreamDecoder<T> decoder) {
+            if (decoder == null) throw new NullPointerException("decoder is null.");
+            this.originalCall = originalCall;
+            this.tag = tag;
+            this.decoder = decoder;
+        }
+
+        @Override
+        public void call(Subscriber<? super T> subscriber) {
+            StreamProducer<T> producer = new StreamProducer<>(originalCall, tag, decoder, subscriber);
+            subscriber.add(producer);
+            subscriber.setProducer(producer);
+        }
+    }
+
+    /**
+     * requested 计数从 0 增加的线程负责读取, 直到计数减回 0. 取消订阅时同样增加计数,
+     * 没有线程在读取时由取消订阅的线程关闭响应体.
+     */
+    static final class StreamProducer<T> extends AtomicLong implements Subscription, Producer {
+        private final BJNetCall call;
+        private final Object tag;
+        private final BJStreamDecoder<T> decoder;
+        private final Subscriber<? super T> subscriber;
+        private volatile boolean unsubscribed;
+        private BJResponse response;
+        private boolean done;
+
+        StreamProducer(BJNetCall call, Object tag, BJStreamDecoder<T> decoder, Subscriber<? super T> subscriber) {
+            this.call = call;
+            this.tag = tag;
+            this.decoder = decoder;
+            this.subscriber = subscriber;
+        }
+
+        @Override public void request(long n) {
+            if (n < 0) throw new IllegalArgumentException("n < 0: " + n);
+            if (n == 0) return; // Nothing to do when requesting 0.
+            if (getAndAddRequest(n) == 0) {
+                drain();
+            }
+        }
+
+        private long getAndAddRequest(long n) {
+            while (true) {
+                long current = get();
+                long next = current + n;
+                if (next < 0) next = Long.MAX_VALUE;
+                if (compareAndSet(current, next)) return current;
+            }
+        }
+
+        private void drain() {
+            long requested = get();
+            while (true) {
+                long emitted = 0;
+                while (emitted != requested) {
+                    if (unsubscribed || done) {
+                        close();
+                        return;
+                    }
+                    T t;
+                    try {
+                        if (response == null) {
+                            response = call.executeSync(tag);
+                            if (!response.isSuccessful()) {
+                                throw new HttpException(response);
+                            }
+                        }
+                        t = decoder.decode(response.getResponse().body().source());
+                    } catch (Exception e) {
+                        terminate(HttpException.wrap(e, response == null ? null : response.getMetrics()));
+                        return;
+                    }
+                    if (t == null) {
+                        terminate(null);
+                        return;
+                    }
+                    subscriber.onNext(t);
+                    emitted++;
+                }
+                if (unsubscribed) {
+                    close();
+                    return;
+                }
+                if (requested != Long.MAX_VALUE) {
+                    requested = addAndGet(-emitted);
+                    if (requested == 0) return;
+                }
+            }
+        }
+
+        /**
+         * 结束之后 requested 不再减少, 之后的 request 不会再进入 drain
+         */
+        private void terminate(HttpException e) {
+            done = true;
+            close();
+            if (unsubscribed) return;
+            if (e != null) {
+                subscriber.onError(e);
+            } else {
+                subscriber.onCompleted();
+            }
+        }
+
+        private void close() {
+            if (response != null) {
+                response.getResponse().close();
+            }
+        }
+
+        @Override public void unsubscribe() {
+            if (unsubscribed) return;
+            unsubscribed = true;
+            call.cancel();
+            if (getAndAddRequest(1) == 0) {
+                drain();
+            }
+        }
+
+        @Override public boolean isUnsubscribed() {
+            return unsubscribed;
+        }
+    }
+
+    /**
+     * 同一时间只有一页在请求. 已加载未发射的页数小于 "已请求未发射的页数 + prefetchPages" 时加载下一页.
+     * 发射使用 emitter-loop, 请求线程和 OkHttp 回调线程都可能发射.
+     */
+    static final class PagingProducer<P> implements Producer, Subscription {
+        private final BJRxNetRequestManager manager;
+        private final Map<String, String> headers;
+        private final Object tag;
+        private final Class<P> clazz;
+        private final int prefetchPages;
+        private final Func1<? super P, String> nextPageResolver;
+        private final Subscriber<? super P> child;
+
+        private final ArrayDeque<P> buffer = new ArrayDeque<>();
+        private long requested;
+        private String nextUrl;
+        private boolean fetching;
+        private Subscription fetchSubscription;
+        private Throwable error;
+        private boolean terminated;
+        private boolean emitting;
+        private boolean missed;
+        private volatile boolean unsubscribed;
+
+        PagingProducer(BJRxNetRequestManager manager, String firstPageUrl, Map<String, String> headers, Object tag,
+                       Class<P> clazz, int prefetchPages, Func1<? super P, String> nextPageResolver,
+                       Subscriber<? super P> child) {
+            this.manager = manager;
+            this.nextUrl = firstPageUrl;
+            this.headers = headers;
+            this.tag = tag;
+            this.clazz = clazz;
+            this.prefetchPages = prefetchPages;
+            this.nextPageResolver = nextPageResolver;
+            this.child = child;
+        }
+
+        @Override public void request(long n) {
+            if (n < 0) throw new IllegalArgumentException("n < 0: " + n);
+            if (n == 0) return; // Nothing to do when requesting 0.
+            synchronized (this) {
+                requested += n;
+                if (requested < 0) requested = Long.MAX_VALUE;
+            }
+            drain();
+        }
+
+        private void drain() {
+            synchronized (this) {
+                if (emitting) {
+                    missed = true;
+                    return;
+                }
+                emitting = true;
+            }
+            while (true) {
+                while (true) {
+                    P page;
+                    synchronized (this) {
+                        if (unsubscribed || terminated) return;
+                        if (requested == 0 || buffer.isEmpty()) break;
+                        page = buffer.poll();
+                        if (requested != Long.MAX_VALUE) requested--;
+                    }
+                    child.onNext(page);
+                }
+
+                String fetchUrl = null;
+                Throwable terminalError = null;
+                boolean complete = false;
+                synchronized (this) {
+                    if (buffer.isEmpty() && !fetching) {
+                        if (error != null) {
+                            terminalError = error;
+                            terminated = true;
+                        } else if (nextUrl == null) {
+                            complete = true;
+                            terminated = true;
+                        }
+                    }
+                    long limit = requested > Long.MAX_VALUE - prefetchPages ? Long.MAX_VALUE : requested + prefetchPages;
+                    if (!terminated && !fetching && nextUrl != null && error == null && buffer.size() < limit) {
+                        fetchUrl = nextUrl;
+                        nextUrl = null;
+                        fetching = true;
+                    }
+                }
+                if (terminalError != null) {
+                    child.onError(terminalError);
+                    return;
+                }
+                if (complete) {
+                    child.onCompleted();
+                    return;
+                }
+                if (fetchUrl != null) {
+                    fetch(fetchUrl);
+                }
+
+                synchronized (this) {
+                    if (!missed) {
+                        emitting = false;
+                        return;
+                    }
+                    missed = false;
+                }
+            }
+        }
+
+        private void fetch(String url) {
+            Subscription subscription = manager.rx_newGetCallAsync(url, headers, 0, tag, clazz)
+                    .subscribe(new Subscriber<P>() {
+                        @Override
+                        public void onNext(P page) {
+                            String next = null;
+                            Throwable resolveError = null;
+                            try {
+                                next = nextPageResolver.call(page);
+                            } catch (Throwable t) {
+                                Exceptions.throwIfFatal(t);
+                                resolveError = t;
+                            }
+                            synchronized (PagingProducer.this) {
+                                buffer.add(page);
+                                nextUrl = next;
+                                error = resolveError;
+                            }
+                        }
+
+                        @Override
+                        public void onCompleted() {
+                            synchronized (PagingProducer.this) {
+                                fetching = false;
+                                fetchSubscription = null;
+                            }
+                            drain();
+                        }
+
+                        @Override
+                        public void onError(Throwable e) {
+                            synchronized (PagingProducer.this) {
+                                error = e;
+                                fetching = false;
+                                fetchSubscription = null;
+                            }
+                            drain();
+                        }
+                    });
+            synchronized (this) {
+                if (fetching) {
+                    fetchSubscription = subscription;
+                }
+            }
+            if (unsubscribed) {
+                subscription.unsubscribe();
+            }
+        }
+
+        @Override public void unsubscribe() {
+            Subscription subscription;
+            synchronized (this) {
+                if (unsubscribed) return;
+                unsubscribed = true;
+                subscription = fetchSubscription;
+                fetchSubscription = null;
+                buffer.clear();
+            }
+            if (subscription != null) {
+                subscription.unsubscribe();
+            }
+        }
+
+        @Override public boolean isUnsubscribed() {
+            return unsubscribed;
+        }
+    }
+
+    /**
+     * 读入内存的响应, 用于比较缓存和网络响应
+     */
+    static final class ResponseSnapshot {
+        static final Func1<BJResponse, ResponseSnapshot> READ = new Func1<BJResponse, ResponseSnapshot>() {
+            @Override
+            public ResponseSnapshot call(BJResponse response) {
+                try {
+                    return new ResponseSnapshot(response);
+                } catch (IOException e) {
+                    throw HttpException.wrap(e, response.getMetrics());
+                }
+            }
+        };
+
+        final BJResponse response;
+        final BJResponseSource source;
+        final String etag;
+        final ByteString md5;
+
+        ResponseSnapshot(BJResponse original) throws IOException {
+            Response response = original.getResponse();
+            ResponseBody body = response.body();
+            byte[] bytes;
+            try {
+                bytes = body.bytes();
+            } finally {
+                body.close();
+            }
+            this.response = new BJResponse(response.newBuilder()
+                    .body(ResponseBody.create(body.contentType(), bytes))
+                    .build());
+            this.source = original.getResponseSource();
+            this.etag = response.header("ETag");
+            this.md5 = ByteString.of(bytes).md5();
+        }
+
+        boolean isSameAs(ResponseSnapshot cached) {
+            if (source == BJResponseSource.CACHE || source == BJResponseSource.CONDITIONAL_CACHE) {
+                // 没有新的网络响应
+                return true;
+            }
+            if (etag != null && cached.etag != null) {
+                return etag.equals(cached.etag);
+            }
+            return md5.equals(cached.md5);
+        }
+    }
 }
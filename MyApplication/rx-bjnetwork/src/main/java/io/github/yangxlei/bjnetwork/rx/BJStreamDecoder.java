@@ -0,0 +1,16 @@
+package io.github.yangxlei.bjnetwork.rx;
+
+import java.io.IOException;
+
+import okio.BufferedSource;
+
+/**
+ * 从响应体中逐个读取元素, 见 {@link BJRxNetRequestManager#rx_newGetStream}. 常用的实现见 {@link BJStreamDecoders}
+ */
+public interface BJStreamDecoder<T> {
+
+    /**
+     * @return 下一个元素, 读到响应体结尾时返回 null
+     */
+    T decode(BufferedSource source) throws IOException;
+}
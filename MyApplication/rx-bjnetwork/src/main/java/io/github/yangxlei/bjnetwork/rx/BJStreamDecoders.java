@@ -0,0 +1,65 @@
+package io.github.yangxlei.bjnetwork.rx;
+
+import java.io.IOException;
+
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ByteString;
+
+/**
+ * 常用的 {@link BJStreamDecoder}
+ */
+public final class BJStreamDecoders {
+
+    public static final long DEFAULT_CHUNK_SIZE = 8 * 1024;
+
+    private BJStreamDecoders() {
+    }
+
+    /**
+     * 按块读取, 每块最多 maxChunkSize 字节. 已经收到的数据立即返回, 不等待填满一块
+     */
+    public static BJStreamDecoder<ByteString> chunks(final long maxChunkSize) {
+        if (maxChunkSize <= 0) throw new IllegalArgumentException("maxChunkSize <= 0");
+        return new BJStreamDecoder<ByteString>() {
+            @Override
+            public ByteString decode(BufferedSource source) throws IOException {
+                Buffer buffer = new Buffer();
+                if (source.read(buffer, maxChunkSize) == -1) {
+                    return null;
+                }
+                return buffer.readByteString();
+            }
+        };
+    }
+
+    /**
+     * 按行读取 UTF-8 文本, 不包括行尾的 "\n" 或 "\r\n"
+     */
+    public static BJStreamDecoder<String> lines() {
+        return new BJStreamDecoder<String>() {
+            @Override
+            public String decode(BufferedSource source) throws IOException {
+                return source.readUtf8Line();
+            }
+        };
+    }
+
+    /**
+     * NDJSON: 每行一个 JSON 对象, 跳过空行
+     */
+    public static <T> BJStreamDecoder<T> ndjson(final JsonAdapter jsonAdapter, final Class<T> clazz) {
+        if (jsonAdapter == null) throw new NullPointerException("JsonAdapter is null");
+        return new BJStreamDecoder<T>() {
+            @Override
+            public T decode(BufferedSource source) throws IOException {
+                String line;
+                do {
+                    line = source.readUtf8Line();
+                    if (line == null) return null;
+                } while (line.trim().isEmpty());
+                return jsonAdapter.jsonStringToModel(clazz, line);
+            }
+        };
+    }
+}